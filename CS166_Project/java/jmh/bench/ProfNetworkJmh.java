@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ProfNetworkBench cases under JMH, one benchmark run per case name.
+ *
+ * JMH refuses benchmarks in the default package, where the application
+ * classes live, so this class opens ProfNetwork and asks ProfNetworkBench
+ * for its cases by reflection and then calls them through Callable.  The
+ * value each call returns goes back to JMH so no case is optimized away.
+ *
+ * The database is read from the profnetwork.db, profnetwork.port and
+ * profnetwork.user system properties, which the forks inherit from the
+ * -jvmArgs given to the harness.  See scripts/jmh.sh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProfNetworkJmh {
+
+   @Param({"executeQueryAndReturnResult", "executeQueryForEach", "getFriendsList uncached",
+           "getFriendsList", "ThreeLevels", "Profile.load", "DisplayProfile data",
+           "ShowAllMessages page", "PeopleYouMayKnow", "mutual connections",
+           "inbox and sent pages", "inbox and sent pages async", "ThreeLevels indexed"})
+   public String name;
+
+   private Object esql;
+   private Callable<Long> bench;
+
+   @Setup(Level.Trial)
+   @SuppressWarnings("unchecked")
+   public void open() throws Exception {
+      Class.forName("org.postgresql.Driver");
+      Class<?> network = Class.forName("ProfNetwork");
+      esql = network.getConstructor(String.class, String.class, String.class, String.class)
+         .newInstance(System.getProperty("profnetwork.db", "projectdb"),
+                      System.getProperty("profnetwork.port", "6400"),
+                      System.getProperty("profnetwork.user", System.getProperty("user.name")), "");
+      Map<String, Callable<Long>> cases = (Map<String, Callable<Long>>)
+         Class.forName("ProfNetworkBench").getMethod("callables", network).invoke(null, esql);
+      if(cases.isEmpty()){
+         throw new IllegalStateException("No users, load the database with BulkLoader first");
+      }
+      bench = cases.get(name);
+      if(bench == null){
+         throw new IllegalArgumentException("No such case: " + name);
+      }
+   }//end open
+
+   @Benchmark
+   public Long run() throws Exception {
+      return bench.call();
+   }//end run
+
+   @TearDown(Level.Trial)
+   public void close() throws Exception {
+      if(esql != null){
+         esql.getClass().getMethod("cleanup").invoke(esql);
+      }
+   }//end close
+
+}//end ProfNetworkJmh
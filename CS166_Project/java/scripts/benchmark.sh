@@ -0,0 +1,19 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#seed a database of its own from the data directory, then time the hot paths
+#BulkLoader drops and recreates every table, so this never touches projectdb:
+#it loads BENCH_DB (default projectdb_bench), creating it if need be
+#Use your port number and login
+#Pass an operation count and a case name prefix to run a single case
+#jmh.sh runs the same cases under JMH for forked runs with error bars
+BENCH_DB=${BENCH_DB:-projectdb_bench}
+createdb -p 6400 $BENCH_DB 2>/dev/null
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $BENCH_DB 6400 $USER $DIR/../../data $DIR/../../sql/src
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetworkBench $BENCH_DB 6400 $USER "$@"
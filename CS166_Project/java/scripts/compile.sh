@@ -5,9 +5,12 @@ export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
 export PATH=$JAVA_HOME/bin:$PATH
 
 # compile the java program
-javac -d $DIR/../classes $DIR/../src/ProfNetwork.java
+javac -d $DIR/../classes $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
+#Add -Dprofnetwork.reachability=sql to check degrees of separation on the server
+#Add -Dprofnetwork.cacheStats=true to print profile and friend cache hits and misses on exit
+#Add -Dprofnetwork.metricsInterval=60 to dump query and menu timings every minute (-Dprofnetwork.metricsFormat=json for JSON)
 java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetwork projectdb 6400 $USER
 
@@ -0,0 +1,15 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# build the application and the JMH harness into target/benchmarks.jar
+(cd $DIR/.. && mvn -B -q -P jmh package) || exit 1
+
+#run the ProfNetworkBench cases under JMH against a database seeded with bulk_load.sh
+#Use your database name, port number and login
+#Pass JMH options after that, e.g. -p name=Profile.load to run a single case
+#or -f 3 -i 10 for more forks and measured iterations
+java -cp $DIR/../target/benchmarks.jar:$DIR/../lib/pg73jdbc3.jar org.openjdk.jmh.Main \
+   -jvmArgs "-Dprofnetwork.db=projectdb -Dprofnetwork.port=6400 -Dprofnetwork.user=$USER" "$@"
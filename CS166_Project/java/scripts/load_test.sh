@@ -0,0 +1,15 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#replay simulated user sessions against a database seeded with bulk_load.sh
+#Use your database name, port number and login
+#Pass the number of simulated users and the seconds to run, e.g. 16 120
+#Add -Dprofnetwork.loadMix=login=10,friends=25,... to change the operation mix
+#and -Dprofnetwork.loadThinkMs=500 to pause between operations
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar LoadGenerator projectdb 6400 $USER $DIR/../../data "$@"
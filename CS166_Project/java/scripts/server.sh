@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#run the menus as a server, clients connect with e.g. nc localhost 6166
+#Use your database name, port number and login
+java -Dprofnetwork.poolSize=16 -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetworkServer projectdb 6400 $USER 6166
@@ -0,0 +1,311 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Re-seeds a database from the CSV files in the data directory.
+ *
+ * The tables are recreated with create_tables.sql, which leaves out the
+ * foreign keys.  USR is loaded first, since it hands out the userKeys the
+ * other files are translated to, then the other four files are loaded at
+ * the same time, each on its own pooled connection.  The files are read
+ * here and sent over the connection, nothing depends on paths on the
+ * database server.  Once every table is loaded, create_counters.sql,
+ * create_notifications.sql, create_constraints.sql and create_index.sql
+ * are run and the message id sequence is moved past the loaded messages.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> <data dir> [sql dir]
+ */
+public class BulkLoader {
+
+   // table and file name for every CSV under the data directory, USR first
+   private static final String[][] TABLES = {
+      {"USR", "Usr.csv"},
+      {"WORK_EXPR", "Work_Ex.csv"},
+      {"EDUCATIONAL_DETAILS", "Edu_Det.csv"},
+      {"MESSAGE", "Message.csv"},
+      {"CONNECTION_USR", "Connection.csv"}};
+
+   // rows per batch, every batch is one statement committed on its own
+   static final int BATCH_ROWS = Integer.getInteger("profnetwork.loadBatch", 1000);
+
+   public static void main(String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <data dir> [sql dir]");
+         return;
+      }//end if
+      final File dataDir = new File(args[3]);
+      File sqlDir = args.length > 4 ? new File(args[4]) : new File(dataDir, "../sql/src");
+
+      // one connection per table
+      if (System.getProperty("profnetwork.poolSize") == null){
+         System.setProperty("profnetwork.poolSize", String.valueOf(TABLES.length));
+      }//end if
+
+      ProfNetwork esql = null;
+      ExecutorService workers = Executors.newFixedThreadPool(TABLES.length);
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         long start = System.nanoTime();
+
+         runScript(esql, new File(sqlDir, "create_tables.sql"));
+
+         long rows = loadTable(esql, TABLES[0][0], new File(dataDir, TABLES[0][1]));
+         List<Future<Long>> loads = new ArrayList<Future<Long>>();
+         for(int i=1; i<TABLES.length; i++){
+            final ProfNetwork db = esql;
+            final String table = TABLES[i][0];
+            final File csv = new File(dataDir, TABLES[i][1]);
+            loads.add(workers.submit(new Callable<Long>(){
+               public Long call() throws Exception {
+                  return loadTable(db, table, csv);
+               }
+            }));
+         }
+         for(int i=0; i<loads.size(); i++){
+            rows += loads.get(i).get();
+         }
+         long loaded = System.nanoTime();
+
+         runScript(esql, new File(sqlDir, "create_counters.sql"));
+         runScript(esql, new File(sqlDir, "create_notifications.sql"));
+         runScript(esql, new File(sqlDir, "create_constraints.sql"));
+         runScript(esql, new File(sqlDir, "create_index.sql"));
+         esql.executeQueryAndReturnResult(
+            "SELECT setval('msg_id_seq', (SELECT COALESCE(max(msgId), 0) + 1 FROM MESSAGE), false)");
+         esql.executeUpdate("ANALYZE");
+         long done = System.nanoTime();
+
+         System.out.println(String.format("Loaded %d rows in %.2fs (%.0f rows/s), constraints and indexes %.2fs, total %.2fs",
+               rows, (loaded - start) / 1e9, rows / ((loaded - start) / 1e9), (done - loaded) / 1e9, (done - start) / 1e9));
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         workers.shutdown();
+         if(esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+   /*
+   * Streams one CSV file into a table in batches and returns the rows loaded.
+   * A missing file loads nothing.
+   *
+   * */
+   static long loadTable(ProfNetwork esql, String table, File csv) throws IOException, SQLException {
+      if(!csv.exists()){
+         System.out.println(table + ": " + csv + " not found, skipped");
+         return 0;
+      }
+
+      // every value is sent as text and cast to the type of its column,
+      // enums are reported as USER-DEFINED and cast by their type name.  The
+      // files name users by userId, which is joined to USR for every *key
+      // column, and USR.userKey is not in the file at all.  An empty field of
+      // a NOT NULL column with a default, such as MESSAGE.sendTime, takes the
+      // default.
+      List<List<String>> columns = esql.executeQueryAndReturnResult(
+         "SELECT column_name, CASE WHEN data_type = 'USER-DEFINED' THEN udt_name ELSE data_type END, " +
+         "CASE WHEN is_nullable = 'NO' THEN column_default END " +
+         "FROM information_schema.columns WHERE table_name = lower(?) " +
+         "AND (column_default IS NULL OR column_default NOT LIKE 'nextval(''usr_key_seq''%') " +
+         "ORDER BY ordinal_position", table);
+
+      // each batch is one INSERT ... SELECT over a VALUES list of its rows,
+      // so the rows and their userKey lookups all go in one statement
+      StringBuilder names = new StringBuilder();
+      StringBuilder values = new StringBuilder();
+      StringBuilder row = new StringBuilder();
+      StringBuilder joins = new StringBuilder();
+      for(int i=0; i<columns.size(); i++){
+         String column = columns.get(i).get(0);
+         String separator = i == 0 ? "" : ", ";
+         names.append(separator).append(column);
+         row.append(separator).append("?");
+         values.append(separator);
+         if(column.endsWith("key")){
+            values.append("u").append(i).append(".userKey");
+            joins.append(" LEFT JOIN USR u").append(i).append(" ON u").append(i)
+                 .append(".userId = v.").append(column);
+         }
+         else if(columns.get(i).get(2) != null){
+            values.append("COALESCE(CAST(v.").append(column).append(" AS ").append(columns.get(i).get(1))
+                  .append("), ").append(columns.get(i).get(2)).append(")");
+         }
+         else{
+            values.append("CAST(v.").append(column).append(" AS ").append(columns.get(i).get(1)).append(")");
+         }
+      }
+      String head = "INSERT INTO " + table + " (" + names + ") SELECT " + values + " FROM (VALUES ";
+      String tail = ") AS v (" + names + ")" + joins;
+      String tuple = "(" + row + ")";
+
+      long start = System.nanoTime();
+      long rows = 0;
+      List<Object[]> batch = new ArrayList<Object[]>(BATCH_ROWS);
+      BufferedReader reader = new BufferedReader(new FileReader(csv));
+      try{
+         String line;
+         while((line = reader.readLine()) != null){
+            if(line.length() == 0){
+               continue;
+            }
+            batch.add(parseCsvLine(line, columns.size()));
+            if(batch.size() == BATCH_ROWS){
+               rows += esql.executeValues(head, tuple, tail, batch);
+               batch.clear();
+            }
+         }
+         if(!batch.isEmpty()){
+            rows += esql.executeValues(head, tuple, tail, batch);
+         }
+      }finally{
+         reader.close();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%s: %d rows in %.2fs (%.0f rows/s)", table, rows, seconds, rows / seconds));
+      return rows;
+   }//end loadTable
+
+   /*
+   * Splits a line the way COPY ... CSV does: fields may be quoted with ""
+   * as an escaped quote, and an empty unquoted field is NULL
+   *
+   * */
+   static Object[] parseCsvLine(String line, int columns){
+      Object[] values = new Object[columns];
+      int field = 0;
+      int i = 0;
+      while(i <= line.length() && field < columns){
+         StringBuilder value = new StringBuilder();
+         boolean quoted = false;
+         if(i < line.length() && line.charAt(i) == '"'){
+            quoted = true;
+            i++;
+            while(i < line.length()){
+               char c = line.charAt(i++);
+               if(c == '"'){
+                  if(i < line.length() && line.charAt(i) == '"'){
+                     value.append('"');
+                     i++;
+                  }
+                  else{
+                     break;
+                  }
+               }
+               else{
+                  value.append(c);
+               }
+            }
+         }
+         while(i < line.length() && line.charAt(i) != ','){
+            value.append(line.charAt(i++));
+         }
+         values[field++] = (!quoted && value.length() == 0) ? null : value.toString();
+         i++;
+      }
+      return values;
+   }//end parseCsvLine
+
+   /*
+   * Runs every statement of a SQL script.  Like psql, a failing statement
+   * is reported and the rest of the script still runs.
+   *
+   * */
+   static void runScript(ProfNetwork esql, File script) throws IOException {
+      List<String> statements = splitStatements(readFile(script));
+      for(int i=0; i<statements.size(); i++){
+         try{
+            esql.executeUpdate(statements.get(i));
+         }catch(SQLException e){
+            System.err.println(script.getName() + ": " + e.getMessage());
+         }
+      }
+   }//end runScript
+
+   private static String readFile(File file) throws IOException {
+      StringBuilder text = new StringBuilder();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try{
+         String line;
+         while((line = reader.readLine()) != null){
+            text.append(line).append('\n');
+         }
+      }finally{
+         reader.close();
+      }
+      return text.toString();
+   }//end readFile
+
+   /*
+   * Splits a script on the semicolons that end statements, skipping those
+   * inside quotes, dollar quoted bodies and -- comments
+   *
+   * */
+   static List<String> splitStatements(String script){
+      List<String> statements = new ArrayList<String>();
+      StringBuilder current = new StringBuilder();
+      int i = 0;
+      while(i < script.length()){
+         char c = script.charAt(i);
+         if(c == '-' && script.startsWith("--", i)){
+            int end = script.indexOf('\n', i);
+            i = end < 0 ? script.length() : end;
+            continue;
+         }
+         if(c == '\''){
+            int end = i + 1;
+            while(end < script.length()){
+               if(script.charAt(end) == '\''){
+                  if(end + 1 < script.length() && script.charAt(end + 1) == '\''){
+                     end += 2;
+                     continue;
+                  }
+                  break;
+               }
+               end++;
+            }
+            current.append(script, i, Math.min(end + 1, script.length()));
+            i = end + 1;
+            continue;
+         }
+         if(c == '$' && script.startsWith("$$", i)){
+            int end = script.indexOf("$$", i + 2);
+            end = end < 0 ? script.length() : end + 2;
+            current.append(script, i, end);
+            i = end;
+            continue;
+         }
+         if(c == ';'){
+            if(current.toString().trim().length() > 0){
+               statements.add(current.toString().trim());
+            }
+            current.setLength(0);
+            i++;
+            continue;
+         }
+         current.append(c);
+         i++;
+      }
+      if(current.toString().trim().length() > 0){
+         statements.add(current.toString().trim());
+      }
+      return statements;
+   }//end splitStatements
+
+}//end BulkLoader
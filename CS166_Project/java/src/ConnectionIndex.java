@@ -0,0 +1,451 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory index of the accepted connections in CONNECTION_USR.
+ *
+ * Every userId is interned to an int the first time it is seen.  The edges
+ * loaded at startup are kept in compressed sparse row form: the friends of
+ * user u are neighbors[offsets[u]] .. neighbors[offsets[u+1]-1].  When a
+ * connection is accepted or rejected afterwards only the two users involved
+ * get their own patched copy of their friends, and once enough users have
+ * been patched the whole index is packed back into plain CSR arrays.
+ *
+ * Edges are undirected, a connection shows up in the friends of both users.
+ * CONNECTION_USR keeps a row per direction however, and the two rows of a
+ * pair can disagree, one Accept and the other still Request, so next to
+ * every friend a byte records which of the two rows are accepted, and the
+ * edge stays as long as either of them is.  Every user's friends are kept
+ * sorted by id, without repeats, so checking a connection is a binary
+ * search and the mutual friends of two users are found by merging their
+ * two lists.
+ */
+public class ConnectionIndex {
+
+   // rebuild the CSR arrays once this many users carry a patched friends list
+   private static final int COMPACT_THRESHOLD = 1024;
+
+   // which CONNECTION_USR rows between a user and a friend are accepted
+   private static final byte OUT = 1;   // user to friend
+   private static final byte IN = 2;    // friend to user
+
+   private final Map<String, Integer> ids = new HashMap<String, Integer>();
+   private String[] names = new String[16];
+   private int size = 0;
+
+   private int[] offsets = new int[1];
+   private int[] neighbors = new int[0];
+   // OUT and IN bits of every entry of neighbors
+   private byte[] directions = new byte[0];
+
+   // per user friends that replace the CSR slice once the user has changed
+   private int[][] patched = new int[16][];
+   private byte[][] patchedDirections = new byte[16][];
+   private int[] patchedDegree = new int[16];
+   private int patchedCount = 0;
+
+   /*
+   * Builds the index from the accepted rows of CONNECTION_USR
+   *
+   * */
+   public static ConnectionIndex load(ProfNetwork esql) throws SQLException {
+      final ConnectionIndex index = new ConnectionIndex();
+      //edges are interned as they stream in, no row is kept as strings
+      final int[][] edges = {new int[1024], new int[1024]};
+      final int[] count = {0};
+      esql.executeQueryForEach(
+         "SELECT a.userId, b.userId FROM CONNECTION_USR c " +
+         "JOIN USR a ON a.userKey = c.userKey JOIN USR b ON b.userKey = c.connectionKey " +
+         "WHERE c.status = 'Accept'",
+         new ProfNetwork.RowHandler(){
+            public boolean row(ResultSet rs) throws SQLException {
+               if(count[0] == edges[0].length){
+                  edges[0] = Arrays.copyOf(edges[0], count[0] * 2);
+                  edges[1] = Arrays.copyOf(edges[1], count[0] * 2);
+               }
+               edges[0][count[0]] = index.intern(rs.getString(1));
+               edges[1][count[0]] = index.intern(rs.getString(2));
+               count[0]++;
+               return true;
+            }
+         });
+      index.build(edges[0], edges[1], count[0]);
+      return index;
+   }//end load
+
+   /*
+   * Returns the int id of a user, or -1 if the user has no accepted connections
+   *
+   * */
+   public synchronized int id(String userId){
+      Integer id = ids.get(userId);
+      return id == null ? -1 : id.intValue();
+   }//end id
+
+   public synchronized String name(int id){
+      return names[id];
+   }//end name
+
+   public synchronized int size(){
+      return size;
+   }//end size
+
+   public synchronized int degree(int id){
+      if(id < 0 || id >= size){
+         return 0;
+      }
+      if(patched[id] != null){
+         return patchedDegree[id];
+      }
+      return id + 1 < offsets.length ? offsets[id + 1] - offsets[id] : 0;
+   }//end degree
+
+   /*
+   * Returns the i'th friend of a user, 0 <= i < degree(id)
+   *
+   * */
+   public synchronized int neighbor(int id, int i){
+      if(patched[id] != null){
+         return patched[id][i];
+      }
+      return neighbors[offsets[id] + i];
+   }//end neighbor
+
+   public synchronized boolean connected(int a, int b){
+      return find(a, b) >= 0;
+   }//end connected
+
+   /*
+   * Counts the friends a and b have in common and copies the first
+   * sample.length of them, in id order, into sample
+   *
+   * */
+   public synchronized int mutual(int a, int b, int[] sample){
+      int degreeA = degree(a);
+      int degreeB = degree(b);
+      int i = 0, j = 0, count = 0;
+      while(i < degreeA && j < degreeB){
+         int x = neighbor(a, i);
+         int y = neighbor(b, j);
+         if(x < y){
+            i++;
+         }
+         else if(x > y){
+            j++;
+         }
+         else{
+            if(count < sample.length){
+               sample[count] = x;
+            }
+            count++;
+            i++;
+            j++;
+         }
+      }
+      return count;
+   }//end mutual
+
+   /*
+   * Returns the friends of a user as userIds, for callers that still want a list
+   *
+   * */
+   public synchronized List<String> friendsOf(String userId){
+      int id = id(userId);
+      int degree = degree(id);
+      List<String> friends = new ArrayList<String>(degree);
+      for(int i=0; i<degree; i++){
+         friends.add(names[neighbor(id, i)]);
+      }
+      return friends;
+   }//end friendsOf
+
+   /*
+   * Counts the mutual friends of every friend of a friend of id, leaving out
+   * id and the people id is already connected to.  The result maps each
+   * candidate to a one element array holding the count.
+   *
+   * Friends are walked from the fewest connections up, and the walk stops
+   * once budget edges have been looked at, so a user with a very large
+   * network costs at most budget steps.  When the walk stops early the
+   * counts only cover the friends visited, which are the ones whose own
+   * friends say the most about id.
+   *
+   * Only copying the friends lists out is done holding the index, the
+   * counting is not, so other readers and updates wait no longer than the
+   * copy takes.
+   *
+   * */
+   public Map<Integer, int[]> friendsOfFriends(int id, int budget){
+      Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+      int[] friends;
+      int[] walk;
+      synchronized(this){
+         int degree = degree(id);
+         if(degree == 0){
+            return counts;
+         }
+         friends = new int[degree];
+         copy(id, friends, 0, degree);
+         //friends packed as degree << 32 | friend so one sort orders them by degree
+         long[] order = new long[degree];
+         long total = 0;
+         for(int i=0; i<degree; i++){
+            order[i] = ((long) degree(friends[i]) << 32) | friends[i];
+            total += degree(friends[i]);
+         }
+         Arrays.sort(order);
+         //their friends in walk order, budget of them at most
+         walk = new int[(int) Math.min(total, Math.max(0, budget))];
+         int steps = 0;
+         for(int i=0; i<order.length && steps < walk.length; i++){
+            int friend = (int) order[i];
+            int length = Math.min(degree(friend), walk.length - steps);
+            copy(friend, walk, steps, length);
+            steps += length;
+         }
+      }
+      //friends is sorted by id like every friends list
+      for(int i=0; i<walk.length; i++){
+         int candidate = walk[i];
+         if(candidate == id || Arrays.binarySearch(friends, candidate) >= 0){
+            continue;
+         }
+         int[] count = counts.get(candidate);
+         if(count == null){
+            counts.put(candidate, new int[]{1});
+         }
+         else{
+            count[0]++;
+         }
+      }
+      return counts;
+   }//end friendsOfFriends
+
+   /*
+   * Records the new status of the CONNECTION_USR row from userId to
+   * connectionId.  Only accepted rows are edges, any other status removes
+   * the edge unless the row the other way round is still accepted.
+   *
+   * */
+   public synchronized void update(String userId, String connectionId, String status){
+      if(status.equals("Accept")){
+         int a = intern(userId);
+         int b = intern(connectionId);
+         set(a, b, OUT);
+         set(b, a, IN);
+      }
+      else{
+         int a = id(userId);
+         int b = id(connectionId);
+         if(a >= 0 && b >= 0){
+            clear(a, b, OUT);
+            clear(b, a, IN);
+         }
+      }
+      if(patchedCount >= COMPACT_THRESHOLD){
+         compact();
+      }
+   }//end update
+
+   /*
+   * Binary search of a user's sorted friends, returns the position of
+   * friend or -(insertion point) - 1 like Arrays.binarySearch
+   *
+   * */
+   private int find(int id, int friend){
+      if(id < 0 || id >= size){
+         return -1;
+      }
+      if(patched[id] != null){
+         return Arrays.binarySearch(patched[id], 0, patchedDegree[id], friend);
+      }
+      if(id + 1 >= offsets.length){
+         return -1;
+      }
+      int at = Arrays.binarySearch(neighbors, offsets[id], offsets[id + 1], friend);
+      return at >= 0 ? at - offsets[id] : at + offsets[id];
+   }//end find
+
+   /*
+   * Copies the first length friends of a user into to, starting at offset
+   *
+   * */
+   private void copy(int id, int[] to, int offset, int length){
+      if(patched[id] != null){
+         System.arraycopy(patched[id], 0, to, offset, length);
+      }
+      else{
+         System.arraycopy(neighbors, offsets[id], to, offset, length);
+      }
+   }//end copy
+
+   private int intern(String userId){
+      Integer id = ids.get(userId);
+      if(id != null){
+         return id.intValue();
+      }
+      if(size == names.length){
+         int capacity = names.length * 2;
+         names = Arrays.copyOf(names, capacity);
+         patched = Arrays.copyOf(patched, capacity);
+         patchedDirections = Arrays.copyOf(patchedDirections, capacity);
+         patchedDegree = Arrays.copyOf(patchedDegree, capacity);
+      }
+      names[size] = userId;
+      ids.put(userId, size);
+      return size++;
+   }//end intern
+
+   /*
+   * Fills the CSR arrays from the accepted rows, each stored in both
+   * directions, then sorts every user's friends and merges the two entries
+   * left by connections accepted both ways round
+   *
+   * */
+   private void build(int[] from, int[] to, int edges){
+      int[] start = new int[size + 1];
+      for(int i=0; i<edges; i++){
+         start[from[i] + 1]++;
+         start[to[i] + 1]++;
+      }
+      for(int u=0; u<size; u++){
+         start[u + 1] += start[u];
+      }
+      //friend << 2 | direction, so one sort orders a user's friends by id
+      int[] fill = Arrays.copyOf(start, size);
+      long[] adjacent = new long[start[size]];
+      for(int i=0; i<edges; i++){
+         adjacent[fill[from[i]]++] = ((long) to[i] << 2) | OUT;
+         adjacent[fill[to[i]]++] = ((long) from[i] << 2) | IN;
+      }
+      int[] friends = new int[adjacent.length];
+      byte[] bits = new byte[adjacent.length];
+      int kept = 0;
+      for(int u=0; u<size; u++){
+         int begin = start[u];
+         int end = start[u + 1];
+         Arrays.sort(adjacent, begin, end);
+         start[u] = kept;
+         for(int i=begin; i<end; i++){
+            int friend = (int) (adjacent[i] >>> 2);
+            if(kept > start[u] && friends[kept - 1] == friend){
+               bits[kept - 1] |= (byte) (adjacent[i] & 3);
+            }
+            else{
+               friends[kept] = friend;
+               bits[kept] = (byte) (adjacent[i] & 3);
+               kept++;
+            }
+         }
+      }
+      start[size] = kept;
+      offsets = start;
+      neighbors = kept == friends.length ? friends : Arrays.copyOf(friends, kept);
+      directions = kept == bits.length ? bits : Arrays.copyOf(bits, kept);
+   }//end build
+
+   /*
+   * Gives a user a private copy of their friends that can be edited in place
+   *
+   * */
+   private void patch(int id){
+      if(patched[id] == null){
+         int degree = degree(id);
+         int capacity = Math.max(4, degree * 2);
+         int[] copy = new int[capacity];
+         byte[] bits = new byte[capacity];
+         if(degree > 0){
+            System.arraycopy(neighbors, offsets[id], copy, 0, degree);
+            System.arraycopy(directions, offsets[id], bits, 0, degree);
+         }
+         patched[id] = copy;
+         patchedDirections[id] = bits;
+         patchedDegree[id] = degree;
+         patchedCount++;
+      }
+   }//end patch
+
+   /*
+   * Marks the row between id and friend in one direction as accepted,
+   * adding friend to the friends of id if it was not there yet
+   *
+   * */
+   private void set(int id, int friend, byte direction){
+      int at = find(id, friend);
+      patch(id);
+      if(at >= 0){
+         patchedDirections[id][at] |= direction;
+         return;
+      }
+      at = -at - 1;
+      int degree = patchedDegree[id];
+      if(degree == patched[id].length){
+         patched[id] = Arrays.copyOf(patched[id], degree * 2);
+         patchedDirections[id] = Arrays.copyOf(patchedDirections[id], degree * 2);
+      }
+      System.arraycopy(patched[id], at, patched[id], at + 1, degree - at);
+      System.arraycopy(patchedDirections[id], at, patchedDirections[id], at + 1, degree - at);
+      patched[id][at] = friend;
+      patchedDirections[id][at] = direction;
+      patchedDegree[id] = degree + 1;
+   }//end set
+
+   /*
+   * Marks the row between id and friend in one direction as no longer
+   * accepted, dropping friend from the friends of id once neither is
+   *
+   * */
+   private void clear(int id, int friend, byte direction){
+      int at = find(id, friend);
+      if(at < 0){
+         return;
+      }
+      patch(id);
+      byte bits = (byte) (patchedDirections[id][at] & ~direction);
+      if(bits != 0){
+         patchedDirections[id][at] = bits;
+         return;
+      }
+      int degree = patchedDegree[id];
+      System.arraycopy(patched[id], at + 1, patched[id], at, degree - at - 1);
+      System.arraycopy(patchedDirections[id], at + 1, patchedDirections[id], at, degree - at - 1);
+      patchedDegree[id] = degree - 1;
+   }//end clear
+
+   /*
+   * Packs every user's friends, patched or not, back into the CSR arrays
+   *
+   * */
+   private void compact(){
+      int[] start = new int[size + 1];
+      for(int u=0; u<size; u++){
+         start[u + 1] = start[u] + degree(u);
+      }
+      int[] adjacent = new int[start[size]];
+      byte[] bits = new byte[start[size]];
+      for(int u=0; u<size; u++){
+         int degree = degree(u);
+         if(patched[u] != null){
+            System.arraycopy(patched[u], 0, adjacent, start[u], degree);
+            System.arraycopy(patchedDirections[u], 0, bits, start[u], degree);
+         }
+         else if(degree > 0){
+            System.arraycopy(neighbors, offsets[u], adjacent, start[u], degree);
+            System.arraycopy(directions, offsets[u], bits, start[u], degree);
+         }
+      }
+      offsets = start;
+      neighbors = adjacent;
+      directions = bits;
+      Arrays.fill(patched, null);
+      Arrays.fill(patchedDirections, null);
+      Arrays.fill(patchedDegree, 0);
+      patchedCount = 0;
+   }//end compact
+
+}//end ConnectionIndex
@@ -0,0 +1,302 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.postgresql.PGStatement;
+
+/**
+ * Fixed size pool of physical database connections.
+ *
+ * Each pooled connection keeps its own cache of prepared statements keyed by
+ * the SQL text, so a statement that is run over and over is prepared once
+ * per connection instead of once per call.  The least recently used
+ * statement is closed when the cache is full.  The statements are also
+ * PREPAREd on the server so it plans them once, set
+ * profnetwork.serverPrepare=false to have the driver fill the parameters
+ * into the SQL text on every call instead.  pg73jdbc3 compares server
+ * versions as strings, so against PostgreSQL 10 and later it takes "10"
+ * for older than "7.3" and quietly keeps filling in the text.
+ *
+ * A connection that breaks and cannot be reopened at once leaves its slot
+ * empty.  Callers that find no idle connection keep trying to reopen the
+ * empty slots while they wait, and get the SQLException when that fails,
+ * so the pool never shrinks for good and acquire() never waits on a
+ * connection that will not come back.
+ *
+ * A caller takes a connection with acquire() and must hand it back with
+ * release() when done, the usual shape being
+ *
+ *    PooledConnection conn = pool.acquire();
+ *    try{ ... }finally{ pool.release(conn); }
+ */
+public class ConnectionPool {
+
+   // whether cached statements are prepared on the server
+   static final boolean SERVER_PREPARE = Boolean.parseBoolean(System.getProperty("profnetwork.serverPrepare", "true"));
+
+   // how long acquire() waits between attempts to reopen an empty slot
+   static final long RETRY_MS = Long.getLong("profnetwork.poolRetryMs", 1000);
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final int statementCacheSize;
+
+   private final BlockingQueue<PooledConnection> idle;
+   private final List<PooledConnection> all = new ArrayList<PooledConnection>();
+   // slots whose connection broke and could not be reopened, guarded by all
+   private int missing = 0;
+
+   /*
+   * Opens size connections to url up front
+   *
+   * */
+   public ConnectionPool(String url, String user, String passwd, int size, int statementCacheSize) throws SQLException {
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.statementCacheSize = statementCacheSize;
+      this.idle = new ArrayBlockingQueue<PooledConnection>(size);
+      try{
+         for(int i=0; i<size; i++){
+            PooledConnection conn = open();
+            all.add(conn);
+            idle.add(conn);
+         }
+      }catch(SQLException e){
+         close();
+         throw e;
+      }
+   }//end ConnectionPool
+
+   /*
+   * Waits for a free connection, reopening an empty slot if there is one
+   *
+   * */
+   public PooledConnection acquire() throws SQLException {
+      try{
+         PooledConnection conn = idle.poll();
+         while(conn == null){
+            conn = reopen();
+            if(conn == null){
+               conn = idle.poll(RETRY_MS, TimeUnit.MILLISECONDS);
+            }
+         }
+         return conn;
+      }catch(InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }
+   }//end acquire
+
+   /*
+   * Returns a connection to the pool.  A connection that was closed under us
+   * is replaced with a fresh one, and one left inside a transaction is
+   * rolled back first.
+   *
+   * */
+   public void release(PooledConnection conn){
+      release(conn, false);
+   }//end release
+
+   /*
+   * Returns a connection to the pool after a statement on it failed.  The
+   * driver does not notice a dropped socket, so the connection is checked
+   * with a trivial query and replaced if that fails too.
+   *
+   * */
+   public void release(PooledConnection conn, boolean failed){
+      PooledConnection next = conn;
+      try{
+         if(conn.connection.isClosed()){
+            next = replace(conn);
+         }
+         else{
+            if(!conn.connection.getAutoCommit()){
+               conn.connection.rollback();
+               conn.connection.setAutoCommit(true);
+            }
+            if(failed){
+               Statement check = conn.connection.createStatement();
+               try{
+                  check.executeQuery("SELECT 1").close();
+               }finally{
+                  check.close();
+               }
+            }
+         }
+      }catch(SQLException e){
+         try{
+            next = replace(conn);
+         }catch(SQLException ignored){
+            // the slot stays empty until acquire() manages to reopen it
+            synchronized(all){
+               missing++;
+            }
+            return;
+         }
+      }
+      idle.offer(next);
+   }//end release
+
+   public int size(){
+      synchronized(all){
+         return all.size();
+      }
+   }//end size
+
+   /*
+   * Closes every connection, whether idle or not
+   *
+   * */
+   public void close(){
+      synchronized(all){
+         for(int i=0; i<all.size(); i++){
+            all.get(i).close();
+         }
+         all.clear();
+         missing = 0;
+      }
+      idle.clear();
+   }//end close
+
+   /*
+   * Opens a connection outside the pool, for a caller that has to keep one
+   * to itself, such as one that LISTENs.  The caller closes it.
+   *
+   * */
+   public Connection connect() throws SQLException {
+      return DriverManager.getConnection(url, user, passwd);
+   }//end connect
+
+   private PooledConnection open() throws SQLException {
+      return new PooledConnection(DriverManager.getConnection(url, user, passwd), statementCacheSize);
+   }//end open
+
+   private PooledConnection replace(PooledConnection broken) throws SQLException {
+      broken.close();
+      synchronized(all){
+         all.remove(broken);
+      }
+      PooledConnection conn = open();
+      synchronized(all){
+         all.add(conn);
+      }
+      return conn;
+   }//end replace
+
+   /*
+   * Opens a connection for an empty slot, or returns null when no slot is
+   * empty.  The slot stays empty if the connection cannot be opened.
+   *
+   * */
+   private PooledConnection reopen() throws SQLException {
+      synchronized(all){
+         if(missing == 0){
+            return null;
+         }
+         missing--;
+      }
+      try{
+         PooledConnection conn = open();
+         synchronized(all){
+            all.add(conn);
+         }
+         return conn;
+      }catch(SQLException e){
+         synchronized(all){
+            missing++;
+         }
+         throw e;
+      }
+   }//end reopen
+
+   /**
+    * A physical connection together with its prepared statement cache.
+    * Only the thread that acquired it may use it.
+    */
+   public static class PooledConnection {
+
+      final Connection connection;
+      private final LinkedHashMap<String, PreparedStatement> statements;
+
+      PooledConnection(Connection connection, final int cacheSize){
+         this.connection = connection;
+         this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+               if(size() > cacheSize){
+                  try{
+                     eldest.getValue().close();
+                  }catch(SQLException e){
+                     // ignored.
+                  }
+                  return true;
+               }
+               return false;
+            }
+         };
+      }//end PooledConnection
+
+      public Connection connection(){
+         return connection;
+      }//end connection
+
+      /*
+      * Returns the cached statement for sql, preparing it on first use.
+      * The statement stays open, callers close only their result sets.
+      *
+      * */
+      public PreparedStatement prepare(String sql) throws SQLException {
+         return prepare(sql, SERVER_PREPARE);
+      }//end prepare
+
+      /*
+      * As prepare(sql), for statements the server cannot PREPARE, such as
+      * DECLARE and FETCH, which are passed serverPrepare false
+      *
+      * */
+      public PreparedStatement prepare(String sql, boolean serverPrepare) throws SQLException {
+         PreparedStatement stmt = statements.get(sql);
+         if(stmt == null){
+            stmt = connection.prepareStatement(sql);
+            if(serverPrepare && stmt instanceof PGStatement){
+               // PREPAREd on first use and DEALLOCATEd by close()
+               ((PGStatement) stmt).setUseServerPrepare(true);
+            }
+            statements.put(sql, stmt);
+         }
+         else{
+            stmt.clearParameters();
+         }
+         return stmt;
+      }//end prepare
+
+      void close(){
+         Iterator<PreparedStatement> it = statements.values().iterator();
+         while(it.hasNext()){
+            try{
+               it.next().close();
+            }catch(SQLException e){
+               // ignored.
+            }
+         }
+         statements.clear();
+         try{
+            connection.close();
+         }catch(SQLException e){
+            // ignored.
+         }
+      }//end close
+
+   }//end PooledConnection
+
+}//end ConnectionPool
@@ -0,0 +1,44 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A user's row of USR_COUNTERS: accepted connections, pending requests sent
+ * and received, and unread messages.
+ *
+ * The counts are kept current by the triggers in create_counters.sql as the
+ * connection and message rows change, so reading them is one primary key
+ * lookup however many rows they stand for.
+ */
+public class Counters {
+
+   static final String QUERY =
+      "SELECT friends, requestsOut, requestsIn, unread FROM USR_COUNTERS WHERE userKey = ?";
+
+   public int friends;
+   public int requestsOut;
+   public int requestsIn;
+   public int unread;
+
+   /*
+   * Reads the counts of a user, all zero when the user has no row
+   *
+   * */
+   public static Counters load(ProfNetwork esql, String userId) throws SQLException {
+      Counters counters = new Counters();
+      int key = esql.userKey(userId);
+      if(key < 0){
+         return counters;
+      }
+      List<List<String>> rows = esql.executeQueryAndReturnResult(QUERY, key);
+      if(rows.isEmpty()){
+         return counters;
+      }
+      List<String> row = rows.get(0);
+      counters.friends = Integer.parseInt(row.get(0));
+      counters.requestsOut = Integer.parseInt(row.get(1));
+      counters.requestsIn = Integer.parseInt(row.get(2));
+      counters.unread = Integer.parseInt(row.get(3));
+      return counters;
+   }//end load
+
+}//end Counters
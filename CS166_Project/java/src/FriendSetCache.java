@@ -0,0 +1,104 @@
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-through cache of each user's accepted connections as a set.
+ *
+ * A user's friends are read once, from ProfNetwork.graph when the index is
+ * loaded or else with one query over both directions of CONNECTION_USR, and
+ * kept until a connection of that user changes.  Every change to an edge
+ * must call invalidate() for both of its users.  The least recently used
+ * users are dropped once more than capacity are cached.
+ *
+ * The sets handed out keep the order the friends were read in and must not
+ * be modified.
+ */
+public class FriendSetCache {
+
+   private static final String QUERY =
+      "SELECT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.connectionKey " +
+      "WHERE c.userKey = ? AND c.status = 'Accept' " +
+      "UNION ALL " +
+      "SELECT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.userKey " +
+      "WHERE c.connectionKey = ? AND c.status = 'Accept'";
+
+   private final ProfNetwork esql;
+
+   // guarded by this
+   private final LinkedHashMap<String, Set<String>> sets;
+   // bumped by every invalidate, a load that raced with one is not cached
+   private long version = 0;
+
+   private long hits = 0;
+   private long misses = 0;
+
+   public FriendSetCache(ProfNetwork esql, final int capacity){
+      this.esql = esql;
+      this.sets = new LinkedHashMap<String, Set<String>>(16, 0.75f, true){
+         protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest){
+            return size() > capacity;
+         }
+      };
+   }//end FriendSetCache
+
+   /*
+   * Returns the friends of a user
+   *
+   * */
+   public Set<String> get(String userId) throws SQLException {
+      long loadVersion;
+      synchronized(this){
+         Set<String> friends = sets.get(userId);
+         if(friends != null){
+            hits++;
+            return friends;
+         }
+         misses++;
+         loadVersion = version;
+      }
+
+      Set<String> friends = Collections.unmodifiableSet(load(userId));
+      synchronized(this){
+         if(loadVersion == version){
+            sets.put(userId, friends);
+         }
+      }
+      return friends;
+   }//end get
+
+   /*
+   * Drops the friends of a user, called when one of their connections changes
+   *
+   * */
+   public synchronized void invalidate(String userId){
+      version++;
+      sets.remove(userId);
+   }//end invalidate
+
+   public synchronized String toString(){
+      return String.format("users=%d hits=%d misses=%d", sets.size(), hits, misses);
+   }//end toString
+
+   private Set<String> load(String userId) throws SQLException {
+      Set<String> friends = new LinkedHashSet<String>();
+      if(ProfNetwork.graph != null){
+         friends.addAll(ProfNetwork.graph.friendsOf(userId));
+         return friends;
+      }
+      int key = esql.userKey(userId);
+      if(key < 0){
+         return friends;
+      }
+      List<List<String>> rows = esql.executeQueryAndReturnResult(QUERY, key, key);
+      for(int i=0; i<rows.size(); i++){
+         friends.add(rows.get(i).get(0));
+      }
+      return friends;
+   }//end load
+
+}//end FriendSetCache
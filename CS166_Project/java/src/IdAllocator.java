@@ -0,0 +1,38 @@
+import java.sql.SQLException;
+
+/**
+ * Hands out ids from a database sequence a block at a time.
+ *
+ * The sequence is created with INCREMENT BY equal to the block size, so each
+ * nextval reserves the ids [value, value + blockSize) for this process alone.
+ * Only the first id of every block costs a round trip, and any number of
+ * running instances can share the sequence without colliding.
+ */
+public class IdAllocator {
+
+   private final ProfNetwork esql;
+   private final String sequence;
+   private final int blockSize;
+
+   private int next = 0;
+   private int limit = 0;
+
+   /*
+   * blockSize must match the INCREMENT BY of the sequence
+   *
+   * */
+   public IdAllocator(ProfNetwork esql, String sequence, int blockSize){
+      this.esql = esql;
+      this.sequence = sequence;
+      this.blockSize = blockSize;
+   }//end IdAllocator
+
+   public synchronized int next() throws SQLException {
+      if(next == limit){
+         next = esql.getNextSeqVal(sequence);
+         limit = next + blockSize;
+      }
+      return next++;
+   }//end next
+
+}//end IdAllocator
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with a bounded relative error.
+ *
+ * Values below 64 get a bucket each.  Above that every power of two is
+ * split into 32 equal buckets, so a recorded value is off by at most about
+ * 3% and the whole range of a long fits in under two thousand counters,
+ * the same layout HdrHistogram uses with two significant digits.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 5;
+   private static final int SUB = 1 << SUB_BITS;
+
+   private final long[] counts = new long[(64 - SUB_BITS) * SUB];
+   private long total = 0;
+   private long sum = 0;
+   private long max = 0;
+
+   public synchronized void record(long nanos){
+      long value = Math.max(0, nanos);
+      counts[index(value)]++;
+      total++;
+      sum += value;
+      max = Math.max(max, value);
+   }//end record
+
+   public synchronized long count(){
+      return total;
+   }//end count
+
+   public synchronized long max(){
+      return max;
+   }//end max
+
+   public synchronized double mean(){
+      return total == 0 ? 0 : (double) sum / total;
+   }//end mean
+
+   /*
+   * Returns the value at quantile q, 0 <= q <= 1, as the middle of its
+   * bucket, or 0 if nothing was recorded
+   *
+   * */
+   public synchronized long percentile(double q){
+      if(total == 0){
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(q * total));
+      long seen = 0;
+      for(int i=0; i<counts.length; i++){
+         seen += counts[i];
+         if(seen >= rank){
+            return Math.min(max, (lowest(i) + lowest(i + 1) - 1) / 2);
+         }
+      }
+      return max;
+   }//end percentile
+
+   public synchronized void reset(){
+      Arrays.fill(counts, 0);
+      total = 0;
+      sum = 0;
+      max = 0;
+   }//end reset
+
+   static int index(long value){
+      if(value < 2 * SUB){
+         return (int) value;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return (shift + 1) * SUB + (int) (value >>> shift) - SUB;
+   }//end index
+
+   /*
+   * Smallest value that lands in bucket i
+   *
+   * */
+   static long lowest(int i){
+      if(i < 2 * SUB){
+         return i;
+      }
+      int shift = i / SUB - 1;
+      return (long) (i % SUB + SUB) << shift;
+   }//end lowest
+
+}//end LatencyHistogram
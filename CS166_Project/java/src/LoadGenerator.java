@@ -0,0 +1,411 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives the interactive menus with simulated users to size the hardware.
+ *
+ * Each worker thread is attached to a scripted session through
+ * SessionConsole, the same way ProfNetworkServer attaches a socket, so the
+ * menu methods in ProfNetwork run unchanged: they read their choices from
+ * a script and print into a buffer nobody reads.  A script line of the
+ * form #text picks whichever numbered option the menu last printed with
+ * that text, so lists of any length can be left with #Go back.
+ *
+ * Users are sampled from Usr.csv and, for operations that need a friend,
+ * from the accepted rows of Connection.csv.  The operation mix is read
+ * from profnetwork.loadMix as name=weight pairs.  Messages sent are deleted
+ * and connection requests between users that were not already connected
+ * in Connection.csv are withdrawn afterwards, but reading marks messages
+ * read and the delete operation deletes real messages, so run it against a
+ * database seeded with BulkLoader.
+ *
+ * The menus catch their own exceptions and print them to System.err, so an
+ * operation counts as an error when it wrote anything there.  Only the
+ * operations that did not are timed.
+ *
+ * Usage: java LoadGenerator <dbname> <port> <user> <data dir> [threads] [seconds]
+ */
+public class LoadGenerator {
+
+   static final String DEFAULT_MIX =
+      "login=10,friends=25,profile=25,connect=5,message=15,inbox=15,delete=5";
+
+   private static final Pattern OPTION = Pattern.compile("(?m)^(\\d+)\\. (.*)$");
+
+   /**
+    * Reads a script line by line, resolving #text against the output
+    */
+   static class Script extends BufferedReader {
+      private final ByteArrayOutputStream output;
+      private final String[] lines;
+      private int next = 0;
+
+      Script(ByteArrayOutputStream output, String... lines){
+         super(new StringReader(""));
+         this.output = output;
+         this.lines = lines;
+      }
+
+      public String readLine(){
+         String printed = output.toString();
+         output.reset();
+         if(next == lines.length){
+            return null;
+         }
+         String line = lines[next++];
+         if(!line.startsWith("#")){
+            return line;
+         }
+         String choice = null;
+         Matcher option = OPTION.matcher(printed);
+         while(option.find()){
+            if(option.group(2).startsWith(line.substring(1))){
+               choice = option.group(1);
+            }
+         }
+         return choice;
+      }
+   }//end Script
+
+   /**
+    * One kind of simulated user action
+    */
+   static abstract class Operation {
+      final String name;
+      final LatencyHistogram latency = new LatencyHistogram();
+      // guarded by this
+      long errors = 0;
+
+      Operation(String name){
+         this.name = name;
+      }
+
+      abstract void run(Worker w) throws Exception;
+
+      synchronized void failed(){
+         errors++;
+      }
+   }//end Operation
+
+   /**
+    * A simulated user session on its own thread
+    */
+   class Worker implements Runnable {
+      final Random random;
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      String user;
+
+      Worker(long seed){
+         this.random = new Random(seed);
+      }
+
+      /*
+      * Runs a menu method with the given input lines
+      *
+      * */
+      void script(String... lines){
+         SessionConsole.attach(new Script(output, lines), output);
+      }
+
+      String friend(){
+         List<String> friends = accepted.get(user);
+         return friends.get(random.nextInt(friends.size()));
+      }
+
+      String anyone(){
+         return users.get(random.nextInt(users.size()));
+      }
+
+      public void run(){
+         while(System.currentTimeMillis() < deadline){
+            user = connected.get(random.nextInt(connected.size()));
+            Operation op = pick(random.nextInt(totalWeight));
+            long errors = SessionConsole.errors();
+            long start = System.nanoTime();
+            try{
+               op.run(this);
+               if(SessionConsole.errors() == errors){
+                  op.latency.record(System.nanoTime() - start);
+               }
+               else{
+                  op.failed();
+               }
+            }catch(Exception e){
+               op.failed();
+            }catch(SessionConsole.SessionClosed e){
+               // the menu asked for more input than the script had.
+               op.failed();
+            }finally{
+               SessionConsole.detach();
+            }
+            if(thinkMillis > 0){
+               try{
+                  Thread.sleep(random.nextInt(2 * thinkMillis));
+               }catch(InterruptedException e){
+                  return;
+               }
+            }
+         }
+      }
+   }//end Worker
+
+   private final ProfNetwork esql;
+   private final List<String> users = new ArrayList<String>();
+   private final Map<String, String> passwords = new HashMap<String, String>();
+   private final Map<String, List<String>> accepted = new HashMap<String, List<String>>();
+   private final List<String> connected = new ArrayList<String>();
+   private final Set<String> edges = new HashSet<String>();
+   private final Set<List<String>> requested = Collections.synchronizedSet(new HashSet<List<String>>());
+   private final List<Operation> operations = new ArrayList<Operation>();
+   private final List<Integer> weights = new ArrayList<Integer>();
+   private int totalWeight = 0;
+   private final int thinkMillis = Integer.getInteger("profnetwork.loadThinkMs", 0);
+   private final String marker = "loadgen " + System.currentTimeMillis();
+   private volatile long deadline;
+
+   LoadGenerator(ProfNetwork esql, File dataDir) throws IOException {
+      this.esql = esql;
+      readCsv(new File(dataDir, "Usr.csv"), 5, new RowReader(){
+         public void row(Object[] values){
+            users.add((String) values[0]);
+            passwords.put((String) values[0], (String) values[1]);
+         }
+      });
+      readCsv(new File(dataDir, "Connection.csv"), 3, new RowReader(){
+         public void row(Object[] values){
+            edges.add(values[0] + "\n" + values[1]);
+            edges.add(values[1] + "\n" + values[0]);
+            if("Accept".equals(values[2])){
+               friend((String) values[0], (String) values[1]);
+               friend((String) values[1], (String) values[0]);
+            }
+         }
+      });
+      connected.addAll(accepted.keySet());
+      Collections.sort(connected);
+      Collections.sort(users);
+      define();
+   }//end LoadGenerator
+
+   private void friend(String user, String friend){
+      List<String> friends = accepted.get(user);
+      if(friends == null){
+         friends = new ArrayList<String>();
+         accepted.put(user, friends);
+      }
+      friends.add(friend);
+   }//end friend
+
+   /*
+   * The operations and their weights, from profnetwork.loadMix
+   *
+   * */
+   private void define(){
+      Map<String, Operation> all = new HashMap<String, Operation>();
+      all.put("login", new Operation("login"){
+         void run(Worker w){
+            w.script(w.user, passwords.get(w.user));
+            ProfNetwork.LogIn(esql);
+         }
+      });
+      all.put("friends", new Operation("friends"){
+         void run(Worker w){
+            // view the first friend's profile, leave their menu, leave the list
+            w.script("1", "3", "#Go back");
+            ProfNetwork.FriendList(esql, w.user);
+         }
+      });
+      all.put("profile", new Operation("profile"){
+         void run(Worker w){
+            w.script();
+            ProfNetwork.DisplayProfile(esql, w.anyone());
+         }
+      });
+      all.put("connect", new Operation("connect"){
+         void run(Worker w){
+            String other = w.anyone();
+            if(!edges.contains(w.user + "\n" + other) && !w.user.equals(other)){
+               requested.add(Arrays.asList(w.user, other));
+            }
+            w.script("1", "3");
+            ProfNetwork.OptionMenu(esql, w.user, other);
+         }
+      });
+      all.put("message", new Operation("message"){
+         void run(Worker w){
+            w.script(marker);
+            ProfNetwork.SendMessage(esql, w.user, w.friend());
+         }
+      });
+      all.put("inbox", new Operation("inbox"){
+         void run(Worker w){
+            // read the newest message if there is one, then leave
+            w.script("1", "1", "#Go back");
+            ProfNetwork.ShowAllMessages(esql, w.user);
+         }
+      });
+      all.put("delete", new Operation("delete"){
+         void run(Worker w){
+            w.script("1", "#Go back");
+            ProfNetwork.DeleteMessages(esql, w.user);
+         }
+      });
+
+      String[] mix = System.getProperty("profnetwork.loadMix", DEFAULT_MIX).split(",");
+      for(int i=0; i<mix.length; i++){
+         String[] pair = mix[i].trim().split("=");
+         Operation op = all.get(pair[0].trim());
+         if(op == null){
+            throw new IllegalArgumentException("Unknown operation in profnetwork.loadMix: " + pair[0]);
+         }
+         int weight = Integer.parseInt(pair[1].trim());
+         if(weight > 0){
+            operations.add(op);
+            weights.add(weight);
+            totalWeight += weight;
+         }
+      }
+   }//end define
+
+   private Operation pick(int r){
+      for(int i=0; i<operations.size(); i++){
+         r -= weights.get(i);
+         if(r < 0){
+            return operations.get(i);
+         }
+      }
+      return operations.get(operations.size() - 1);
+   }//end pick
+
+   /*
+   * Runs threads simulated users for the given time and prints the results
+   *
+   * */
+   void run(int threads, int seconds) throws Exception {
+      deadline = System.currentTimeMillis() + seconds * 1000L;
+      long start = System.nanoTime();
+      List<Thread> workers = new ArrayList<Thread>();
+      for(int i=0; i<threads; i++){
+         Thread t = new Thread(new Worker(166 + i), "load-" + i);
+         workers.add(t);
+         t.start();
+      }
+      for(int i=0; i<workers.size(); i++){
+         workers.get(i).join();
+      }
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      System.out.println(String.format("%d users for %.1fs", threads, elapsed));
+      System.out.println(String.format("%-10s %8s %6s %8s %9s %9s %9s %9s %9s",
+            "operation", "ops", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+      long total = 0;
+      for(int i=0; i<operations.size(); i++){
+         Operation op = operations.get(i);
+         LatencyHistogram h = op.latency;
+         total += h.count();
+         System.out.println(String.format("%-10s %8d %6d %8.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+               op.name, h.count(), op.errors, h.count() / elapsed, h.mean() / 1e6,
+               h.percentile(0.50) / 1e6, h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6, h.max() / 1e6));
+      }
+      System.out.println(String.format("total %.1f ops/s", total / elapsed));
+      System.out.println();
+      System.out.print(Metrics.report());
+   }//end run
+
+   /*
+   * Takes back the messages and connection requests the run added
+   *
+   * */
+   void cleanup(){
+      try{
+         int messages = esql.executeUpdate("DELETE FROM MESSAGE WHERE contents = ?", marker);
+         List<Object[]> rows = new ArrayList<Object[]>();
+         synchronized(requested){
+            for(List<String> pair : requested){
+               rows.add(new Object[]{esql.userKey(pair.get(0)), esql.userKey(pair.get(1))});
+            }
+         }
+         if(!rows.isEmpty()){
+            esql.executeBatch("DELETE FROM CONNECTION_USR WHERE userKey = ? AND connectionKey = ? AND status = 'Request'", rows);
+         }
+         System.out.println("Removed " + messages + " messages and up to " + rows.size() + " connection requests");
+      }catch(Exception e){
+         System.err.println(e.getMessage());
+      }
+   }//end cleanup
+
+   interface RowReader {
+      void row(Object[] values);
+   }//end RowReader
+
+   private static void readCsv(File csv, int columns, RowReader reader) throws IOException {
+      BufferedReader in = new BufferedReader(new FileReader(csv));
+      try{
+         String line;
+         while((line = in.readLine()) != null){
+            if(line.length() > 0){
+               reader.row(BulkLoader.parseCsvLine(line, columns));
+            }
+         }
+      }finally{
+         in.close();
+      }
+   }//end readCsv
+
+   public static void main(String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            LoadGenerator.class.getName () +
+            " <dbname> <port> <user> <data dir> [threads] [seconds]");
+         return;
+      }//end if
+      int threads = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+      int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 60;
+
+      // one connection per simulated user unless told otherwise
+      if (System.getProperty("profnetwork.poolSize") == null){
+         System.setProperty("profnetwork.poolSize", String.valueOf(threads));
+      }//end if
+
+      ProfNetwork esql = null;
+      LoadGenerator load = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         ProfNetwork.LoadConnectionIndex(esql);
+         Metrics.export();
+         SessionConsole.install();
+
+         load = new LoadGenerator(esql, new File(args[3]));
+         load.run(threads, seconds);
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if(load != null) {
+            load.cleanup ();
+         }//end if
+         if(esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end LoadGenerator
@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures messages per second for one INSERT per message against the
+ * batched MessageSender on a loaded database.  The messages are sent
+ * between users that already have accepted connections and are deleted
+ * again afterwards.
+ *
+ * Usage: java MessageSendBench <dbname> <port> <user> [messages]
+ */
+public class MessageSendBench {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java MessageSendBench <dbname> <port> <user> [messages]");
+         return;
+      }//end if
+      int messages = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      ProfNetwork esql = new ProfNetwork (args[0], args[1], args[2], "");
+      String marker = "bench " + System.currentTimeMillis();
+      try{
+         List<List<String>> edges = esql.executeQueryAndReturnResult(
+            "SELECT a.userId, b.userId FROM CONNECTION_USR c JOIN USR a ON a.userKey = c.userKey " +
+            "JOIN USR b ON b.userKey = c.connectionKey WHERE c.status = 'Accept' LIMIT 1000");
+         if(edges.isEmpty()){
+            System.err.println("No accepted connections to send messages along");
+            return;
+         }
+
+         long start = System.nanoTime();
+         for(int i=0; i<messages; i++){
+            List<String> edge = edges.get(i % edges.size());
+            ProfNetwork.InsertMessage(esql, edge.get(0), edge.get(1), marker);
+         }
+         report("single", messages, System.nanoTime() - start);
+
+         start = System.nanoTime();
+         MessageSender sender = esql.messageSender();
+         MessageSender.Ticket ticket = sender.ticket();
+         for(int i=0; i<messages; i++){
+            List<String> edge = edges.get(i % edges.size());
+            sender.send(ticket, edge.get(0), edge.get(1), marker);
+         }
+         ticket.await();
+         report("batched", messages, System.nanoTime() - start);
+
+         //the broadcast path, one sender to many receivers
+         List<String> receivers = new ArrayList<String>();
+         for(int i=0; i<messages; i++){
+            receivers.add(edges.get(i % edges.size()).get(1));
+         }
+         start = System.nanoTime();
+         ProfNetwork.BroadcastMessage(esql, edges.get(0).get(0), receivers, marker);
+         report("broadcast", messages, System.nanoTime() - start);
+      }finally{
+         esql.executeUpdate("DELETE FROM MESSAGE WHERE contents = ?", marker);
+         esql.cleanup();
+      }
+   }//end main
+
+   private static void report(String name, int messages, long nanos){
+      System.out.println(String.format("%-9s messages=%d total=%.1fms rate=%.0f msg/s",
+            name, messages, nanos / 1e6, messages / (nanos / 1e9)));
+   }//end report
+
+}//end MessageSendBench
@@ -0,0 +1,234 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batched writer for bulk messaging.
+ *
+ * send() only queues the message.  A background thread takes messages off
+ * the queue and writes them as one multi-row INSERT, a single round trip,
+ * as soon as batchSize messages are waiting or the oldest has waited
+ * maxDelayMillis.
+ * The queue is bounded, so a sender that outruns the database blocks
+ * instead of piling messages up in memory.
+ *
+ * Batches mix the messages of every caller, so each caller queues under a
+ * Ticket of its own and waits on that, seeing only its own messages and
+ * failures.  A batch that fails is written again one row at a time, so a
+ * bad row only fails the message it belongs to, the usual shape being
+ *
+ *    MessageSender.Ticket ticket = sender.ticket();
+ *    sender.send(ticket, ...);
+ *    ticket.await();
+ */
+public class MessageSender {
+
+   // a batch is one INSERT with a VALUES row per message
+   static final String INSERT_INTO =
+      "INSERT INTO MESSAGE (msgId, senderKey, receiverKey, contents, sendTime, deleteStatus, status) VALUES ";
+   static final String ROW = "(?, ?, ?, ?, CAST(? AS timestamp), 0, 'Delivered')";
+   static final String INSERT = INSERT_INTO + ROW;
+
+   /**
+    * The messages one caller has queued, and how many of them failed
+    */
+   public static class Ticket {
+      // guarded by this
+      private int pending = 0;
+      private int sent = 0;
+      private int failed = 0;
+      private SQLException failure = null;
+
+      synchronized void queued(){
+         pending++;
+      }
+
+      synchronized void cancelled(){
+         pending--;
+         notifyAll();
+      }
+
+      synchronized void done(SQLException error){
+         pending--;
+         if(error == null){
+            sent++;
+         }
+         else{
+            failed++;
+            if(failure == null){
+               failure = error;
+            }
+         }
+         notifyAll();
+      }
+
+      /*
+      * Waits until every message queued on this ticket has been written and
+      * returns how many were, failing if any of them could not be
+      *
+      * */
+      public synchronized int await() throws SQLException {
+         while(pending > 0){
+            try{
+               wait();
+            }catch(InterruptedException e){
+               Thread.currentThread().interrupt();
+               throw new SQLException("Interrupted while sending messages");
+            }
+         }
+         if(failed > 0){
+            throw new SQLException(failed + " of " + (sent + failed) + " messages were not sent: " + failure.getMessage());
+         }
+         return sent;
+      }//end await
+   }//end Ticket
+
+   /**
+    * A message waiting to be written, with the ticket it was queued on
+    */
+   private static class Queued {
+      final Object[] row;
+      final Ticket ticket;
+
+      Queued(Object[] row, Ticket ticket){
+         this.row = row;
+         this.ticket = ticket;
+      }
+   }//end Queued
+
+   private final ProfNetwork esql;
+   private final BlockingQueue<Queued> queue;
+   private final int batchSize;
+   private final long maxDelayMillis;
+   private final Thread flusher;
+   private volatile boolean closed = false;
+
+   public MessageSender(ProfNetwork esql, int capacity, int batchSize, long maxDelayMillis){
+      this.esql = esql;
+      this.queue = new ArrayBlockingQueue<Queued>(capacity);
+      this.batchSize = batchSize;
+      this.maxDelayMillis = maxDelayMillis;
+      this.flusher = new Thread(new Runnable(){
+         public void run(){
+            drain();
+         }
+      }, "message-sender");
+      this.flusher.setDaemon(true);
+      this.flusher.start();
+   }//end MessageSender
+
+   /*
+   * Starts a caller's set of messages
+   *
+   * */
+   public Ticket ticket(){
+      return new Ticket();
+   }//end ticket
+
+   /*
+   * Queues a message on a ticket, waiting while the queue is full
+   *
+   * */
+   public void send(Ticket ticket, String senderId, String receiverId, String contents) throws SQLException {
+      if(closed){
+         throw new SQLException("Message sender is closed");
+      }
+      Object[] row = {esql.nextMessageId(), esql.requireUserKey(senderId), esql.requireUserKey(receiverId), contents,
+                      new Timestamp(System.currentTimeMillis())};
+      ticket.queued();
+      try{
+         queue.put(new Queued(row, ticket));
+      }catch(InterruptedException e){
+         ticket.cancelled();
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while queueing a message");
+      }
+      if(closed){
+         // close() may already have written the rest, do not strand this one
+         writeRest();
+      }
+   }//end send
+
+   /*
+   * Writes out what is queued and stops the background thread
+   *
+   * */
+   public void close(){
+      closed = true;
+      try{
+         flusher.join();
+      }catch(InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+      // anything queued while the thread was stopping
+      writeRest();
+   }//end close
+
+   private synchronized void writeRest(){
+      List<Queued> rest = new ArrayList<Queued>();
+      queue.drainTo(rest);
+      if(!rest.isEmpty()){
+         write(rest);
+      }
+   }//end writeRest
+
+   private void drain(){
+      List<Queued> batch = new ArrayList<Queued>(batchSize);
+      while(!closed || !queue.isEmpty()){
+         try{
+            Queued first = queue.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+            if(first == null){
+               continue;
+            }
+            batch.add(first);
+            long deadline = System.currentTimeMillis() + maxDelayMillis;
+            while(batch.size() < batchSize){
+               long wait = deadline - System.currentTimeMillis();
+               Queued row = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+               if(row == null){
+                  break;
+               }
+               batch.add(row);
+            }
+         }catch(InterruptedException e){
+            // closing, write what has been taken so far.
+         }
+         if(batch.isEmpty()){
+            continue;
+         }
+
+         write(batch);
+         batch.clear();
+      }//end while
+   }//end drain
+
+   private void write(List<Queued> batch){
+      List<Object[]> rows = new ArrayList<Object[]>(batch.size());
+      for(int i=0; i<batch.size(); i++){
+         rows.add(batch.get(i).row);
+      }
+      try{
+         esql.executeValues(INSERT_INTO, ROW, "", rows);
+         for(int i=0; i<batch.size(); i++){
+            batch.get(i).ticket.done(null);
+         }
+         return;
+      }catch(SQLException e){
+         // nothing was written, find the rows that failed it
+      }
+      for(int i=0; i<batch.size(); i++){
+         SQLException error = null;
+         try{
+            esql.executeUpdate(INSERT, rows.get(i));
+         }catch(SQLException e){
+            error = e;
+         }
+         batch.get(i).ticket.done(error);
+      }
+   }//end write
+
+}//end MessageSender
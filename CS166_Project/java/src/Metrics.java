@@ -0,0 +1,284 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Process wide latency and volume counters for the data layer and the menus.
+ *
+ * Every statement run through ProfNetwork is recorded under its SQL text,
+ * which is already a template since values are bound as parameters: calls,
+ * failures, rows returned or changed, bytes of strings materialized and a
+ * latency histogram.  Menu flows are recorded under their name with the
+ * time spent waiting for the user's input taken out, so an action's time
+ * is what the program itself spent on it.
+ *
+ * The counters can be dumped as text or JSON every profnetwork.metricsInterval
+ * seconds to profnetwork.metricsFile (standard error when unset), and are
+ * published over JMX as ProfNetwork:type=Metrics.
+ */
+public class Metrics {
+
+   /**
+    * Counters of one statement template or menu action
+    */
+   public static class Stats {
+      final String name;
+      final LatencyHistogram latency = new LatencyHistogram();
+      // guarded by this
+      long errors = 0;
+      long rows = 0;
+      long bytes = 0;
+
+      Stats(String name){
+         this.name = name;
+      }
+
+      synchronized void add(long nanos, long rows, long bytes, boolean failed){
+         latency.record(nanos);
+         this.rows += rows;
+         this.bytes += bytes;
+         if(failed){
+            errors++;
+         }
+      }
+   }//end Stats
+
+   /**
+    * What is published over JMX
+    */
+   public interface View {
+      String getReport();
+      String getJson();
+      void reset();
+   }//end View
+
+   private static final ConcurrentMap<String, Stats> statements = new ConcurrentHashMap<String, Stats>();
+   private static final ConcurrentMap<String, Stats> actions = new ConcurrentHashMap<String, Stats>();
+
+   // nanoseconds the current thread has spent blocked on console input
+   private static final ThreadLocal<long[]> inputWait = new ThreadLocal<long[]>(){
+      protected long[] initialValue(){
+         return new long[1];
+      }
+   };
+
+   private static Thread reporter = null;
+
+   /*
+   * Records one statement execution
+   *
+   * */
+   public static void statement(String sql, long nanos, long rows, long bytes, boolean failed){
+      stats(statements, sql).add(nanos, rows, bytes, failed);
+   }//end statement
+
+   /*
+   * Returns a mark for timing a menu action on the current thread
+   *
+   * */
+   public static long start(){
+      return System.nanoTime() - inputWait.get()[0];
+   }//end start
+
+   /*
+   * Records a menu action that began at mark, leaving out input waits
+   *
+   * */
+   public static void action(String name, long mark){
+      stats(actions, name).add(start() - mark, 0, 0, false);
+   }//end action
+
+   /*
+   * Adds time the current thread spent waiting for input
+   *
+   * */
+   public static void waited(long nanos){
+      inputWait.get()[0] += nanos;
+   }//end waited
+
+   public static void reset(){
+      statements.clear();
+      actions.clear();
+   }//end reset
+
+   /*
+   * Starts the periodic dump and the JMX bean as configured by the
+   * profnetwork.metricsInterval, profnetwork.metricsFile,
+   * profnetwork.metricsFormat and profnetwork.metricsJmx properties
+   *
+   * */
+   public static synchronized void export(){
+      if(Boolean.parseBoolean(System.getProperty("profnetwork.metricsJmx", "true"))){
+         try{
+            ObjectName name = new ObjectName("ProfNetwork:type=Metrics");
+            if(!ManagementFactory.getPlatformMBeanServer().isRegistered(name)){
+               ManagementFactory.getPlatformMBeanServer().registerMBean(
+                  new StandardMBean(new View(){
+                     public String getReport(){ return report(); }
+                     public String getJson(){ return json(); }
+                     public void reset(){ Metrics.reset(); }
+                  }, View.class), name);
+            }
+         }catch(Exception e){
+            System.err.println("Metrics not published over JMX: " + e.getMessage());
+         }
+      }//end if
+
+      final long interval = Long.getLong("profnetwork.metricsInterval", 0L);
+      if(interval > 0 && reporter == null){
+         reporter = new Thread(new Runnable(){
+            public void run(){
+               while(true){
+                  try{
+                     Thread.sleep(interval * 1000);
+                  }catch(InterruptedException e){
+                     return;
+                  }
+                  dump();
+               }
+            }
+         }, "metrics-reporter");
+         reporter.setDaemon(true);
+         reporter.start();
+      }//end if
+   }//end export
+
+   /*
+   * Writes the counters once in the configured format, appending to
+   * profnetwork.metricsFile or printing to standard error
+   *
+   * */
+   public static void dump(){
+      String text = "json".equals(System.getProperty("profnetwork.metricsFormat")) ? json() : report();
+      String file = System.getProperty("profnetwork.metricsFile");
+      if(file == null){
+         System.err.println(text);
+         return;
+      }
+      try{
+         PrintStream out = new PrintStream(new FileOutputStream(file, true));
+         try{
+            out.println(text);
+         }finally{
+            out.close();
+         }
+      }catch(IOException e){
+         System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+      }
+   }//end dump
+
+   /*
+   * Returns a table of every action and statement, slowest in total first
+   *
+   * */
+   public static String report(){
+      StringBuilder text = new StringBuilder();
+      text.append(String.format("%-60s %8s %6s %10s %10s %10s %10s %10s %10s%n",
+            "action / statement", "calls", "errors", "rows", "bytes", "mean ms", "p50 ms", "p99 ms", "max ms"));
+      List<Stats> all = sorted(actions);
+      all.addAll(sorted(statements));
+      for(int i=0; i<all.size(); i++){
+         Stats stats = all.get(i);
+         synchronized(stats){
+            LatencyHistogram h = stats.latency;
+            text.append(String.format("%-60s %8d %6d %10d %10d %10.2f %10.2f %10.2f %10.2f%n",
+                  abbreviate(stats.name, 60), h.count(), stats.errors, stats.rows, stats.bytes,
+                  h.mean() / 1e6, h.percentile(0.50) / 1e6, h.percentile(0.99) / 1e6, h.max() / 1e6));
+         }
+      }
+      return text.toString();
+   }//end report
+
+   /*
+   * Returns the same counters as one JSON object, latencies in microseconds
+   *
+   * */
+   public static String json(){
+      StringBuilder text = new StringBuilder("{\"time\":").append(System.currentTimeMillis());
+      text.append(",\"actions\":");
+      json(text, sorted(actions));
+      text.append(",\"statements\":");
+      json(text, sorted(statements));
+      return text.append("}").toString();
+   }//end json
+
+   private static void json(StringBuilder text, List<Stats> all){
+      text.append("[");
+      for(int i=0; i<all.size(); i++){
+         Stats stats = all.get(i);
+         synchronized(stats){
+            LatencyHistogram h = stats.latency;
+            text.append(i == 0 ? "" : ",").append("{\"name\":\"").append(escape(stats.name)).append("\"")
+               .append(",\"calls\":").append(h.count())
+               .append(",\"errors\":").append(stats.errors)
+               .append(",\"rows\":").append(stats.rows)
+               .append(",\"bytes\":").append(stats.bytes)
+               .append(",\"meanUs\":").append(Math.round(h.mean() / 1e3))
+               .append(",\"p50Us\":").append(h.percentile(0.50) / 1000)
+               .append(",\"p90Us\":").append(h.percentile(0.90) / 1000)
+               .append(",\"p99Us\":").append(h.percentile(0.99) / 1000)
+               .append(",\"p999Us\":").append(h.percentile(0.999) / 1000)
+               .append(",\"maxUs\":").append(h.max() / 1000)
+               .append("}");
+         }
+      }
+      text.append("]");
+   }//end json
+
+   private static Stats stats(ConcurrentMap<String, Stats> map, String name){
+      Stats stats = map.get(name);
+      if(stats == null){
+         Stats created = new Stats(name);
+         stats = map.putIfAbsent(name, created);
+         if(stats == null){
+            stats = created;
+         }
+      }
+      return stats;
+   }//end stats
+
+   private static List<Stats> sorted(Map<String, Stats> map){
+      List<Stats> all = new ArrayList<Stats>(map.values());
+      Collections.sort(all, new Comparator<Stats>(){
+         public int compare(Stats a, Stats b){
+            double ta = a.latency.mean() * a.latency.count();
+            double tb = b.latency.mean() * b.latency.count();
+            return Double.compare(tb, ta);
+         }
+      });
+      return all;
+   }//end sorted
+
+   private static String abbreviate(String text, int width){
+      String line = text.replaceAll("\\s+", " ");
+      return line.length() <= width ? line : line.substring(0, width - 3) + "...";
+   }//end abbreviate
+
+   private static String escape(String text){
+      StringBuilder escaped = new StringBuilder(text.length());
+      for(int i=0; i<text.length(); i++){
+         char c = text.charAt(i);
+         if(c == '"' || c == '\\'){
+            escaped.append('\\').append(c);
+         }
+         else if(c < ' '){
+            escaped.append(String.format("\\u%04x", (int) c));
+         }
+         else{
+            escaped.append(c);
+         }
+      }
+      return escaped.toString();
+   }//end escape
+
+}//end Metrics
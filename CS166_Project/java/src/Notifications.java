@@ -0,0 +1,154 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Pushes "new message" and "new connection request" events to the sessions
+ * of the users they are for, using Postgres LISTEN/NOTIFY.
+ *
+ * The triggers in create_notifications.sql NOTIFY message_<userKey> when a
+ * message is delivered to a user and request_<userKey> when someone sends
+ * them a connection request.  This class keeps one connection of its own
+ * that LISTENs on the channels of the users who are logged in, and hands
+ * each event to the listeners subscribed for that user.
+ *
+ * The 7.3 driver only reads notifications off the socket as part of a
+ * statement's response, so the connection runs SELECT 1 every
+ * profnetwork.notifyPollMs.  That is one trivial round trip for the whole
+ * process however many users are logged in, in place of each session
+ * listing its messages and requests again to find out what is new.
+ */
+public class Notifications {
+
+   /**
+    * Told about the events of the user it was subscribed for, on the
+    * notification thread, which every subscriber shares.  It must only
+    * hand the event on, never wait on a session's client.
+    */
+   public interface Listener {
+      void event(String type);
+   }//end Listener
+
+   public static final String MESSAGE = "message";
+   public static final String REQUEST = "request";
+
+   private final Connection conn;
+   private final Thread poller;
+   private volatile boolean closed = false;
+
+   // channel to its listeners, guarded by this
+   private final Map<String, List<Listener>> listeners = new HashMap<String, List<Listener>>();
+
+   public Notifications(Connection conn, final long pollMillis){
+      this.conn = conn;
+      this.poller = new Thread(new Runnable(){
+         public void run(){
+            while(!closed){
+               try{
+                  Thread.sleep(pollMillis);
+                  poll();
+               }catch(InterruptedException e){
+                  return;
+               }catch(SQLException e){
+                  if(!closed){
+                     System.err.println("Notifications: " + e.getMessage());
+                  }
+               }
+            }
+         }
+      }, "notifications");
+      this.poller.setDaemon(true);
+      this.poller.start();
+   }//end Notifications
+
+   /*
+   * Starts telling listener about the events of the user with this key
+   *
+   * */
+   public void subscribe(int userKey, Listener listener) throws SQLException {
+      subscribe(MESSAGE + "_" + userKey, listener);
+      subscribe(REQUEST + "_" + userKey, listener);
+   }//end subscribe
+
+   public void unsubscribe(int userKey, Listener listener) throws SQLException {
+      unsubscribe(MESSAGE + "_" + userKey, listener);
+      unsubscribe(REQUEST + "_" + userKey, listener);
+   }//end unsubscribe
+
+   private synchronized void subscribe(String channel, Listener listener) throws SQLException {
+      List<Listener> subscribed = listeners.get(channel);
+      if(subscribed == null){
+         execute("LISTEN " + channel);
+         subscribed = new ArrayList<Listener>();
+         listeners.put(channel, subscribed);
+      }
+      subscribed.add(listener);
+   }//end subscribe
+
+   private synchronized void unsubscribe(String channel, Listener listener) throws SQLException {
+      List<Listener> subscribed = listeners.get(channel);
+      if(subscribed == null || !subscribed.remove(listener) || !subscribed.isEmpty()){
+         return;
+      }
+      listeners.remove(channel);
+      execute("UNLISTEN " + channel);
+   }//end unsubscribe
+
+   /*
+   * Collects the notifications that have arrived and tells their listeners
+   *
+   * */
+   void poll() throws SQLException {
+      List<Listener> targets = new ArrayList<Listener>();
+      List<String> types = new ArrayList<String>();
+      synchronized(this){
+         if(listeners.isEmpty()){
+            return;
+         }
+         execute("SELECT 1");
+         PGNotification[] arrived = ((PGConnection) conn).getNotifications();
+         for(int i=0; arrived != null && i<arrived.length; i++){
+            String channel = arrived[i].getName();
+            List<Listener> subscribed = listeners.get(channel);
+            if(subscribed == null){
+               continue;
+            }
+            String type = channel.substring(0, channel.indexOf('_'));
+            for(int j=0; j<subscribed.size(); j++){
+               targets.add(subscribed.get(j));
+               types.add(type);
+            }
+         }
+      }
+      //listeners run outside the lock so they can subscribe and unsubscribe
+      for(int i=0; i<targets.size(); i++){
+         targets.get(i).event(types.get(i));
+      }
+   }//end poll
+
+   private void execute(String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try{
+         stmt.execute(sql);
+      }finally{
+         stmt.close();
+      }
+   }//end execute
+
+   public void close(){
+      closed = true;
+      poller.interrupt();
+      try{
+         conn.close();
+      }catch(SQLException e){
+         // ignored.
+      }
+   }//end close
+
+}//end Notifications
@@ -0,0 +1,109 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ranked people search over userId, name and email in USR, company in
+ * WORK_EXPR and instituitionName in EDUCATIONAL_DETAILS.
+ *
+ * Every field is matched both by prefix and by pg_trgm similarity, so
+ * partial and misspelled input still finds people.  A user's score is the
+ * sum over every matching field of its weight times the similarity, plus
+ * a bonus when the field starts with the input, so someone matching on
+ * several fields ranks above someone matching on one.  The lower(...)
+ * trigram GIN indexes in create_index.sql serve both kinds of match.
+ */
+public class PeopleSearch {
+
+   /**
+    * One search result
+    */
+   public static class Hit {
+      public final String userId;
+      public final String name;
+      public final double score;
+
+      Hit(String userId, String name, double score){
+         this.userId = userId;
+         this.name = name;
+         this.score = score;
+      }
+   }//end Hit
+
+   // one branch per searched field, weight first
+   private static final String[][] FIELDS = {
+      {"3.0", "USR", "userId"},
+      {"2.0", "USR", "name"},
+      {"1.5", "USR", "email"},
+      {"1.0", "WORK_EXPR", "company"},
+      {"1.0", "EDUCATIONAL_DETAILS", "instituitionName"}};
+
+   private static final String QUERY = buildQuery();
+
+   private static String buildQuery(){
+      StringBuilder sql = new StringBuilder(
+         "SELECT u.userId, u.name, sum(h.score) AS score FROM (");
+      for(int i=0; i<FIELDS.length; i++){
+         String weight = FIELDS[i][0];
+         String column = "lower(" + FIELDS[i][2] + ")";
+         if(i > 0){
+            sql.append(" UNION ALL ");
+         }
+         sql.append("SELECT userKey, ").append(weight).append(" * (similarity(").append(column).append(", ?)")
+            .append(" + CASE WHEN ").append(column).append(" LIKE ? THEN 1 ELSE 0 END) AS score")
+            .append(" FROM ").append(FIELDS[i][1])
+            .append(" WHERE ").append(column).append(" % ? OR ").append(column).append(" LIKE ?");
+      }
+      sql.append(") h JOIN USR u ON u.userKey = h.userKey WHERE h.userKey <> ?")
+         .append(" GROUP BY u.userKey, u.userId, u.name ORDER BY score DESC, u.userId LIMIT ?");
+      return sql.toString();
+   }//end buildQuery
+
+   /*
+   * Returns the best k matches for text, leaving out the searching user
+   *
+   * */
+   public static List<Hit> search(ProfNetwork esql, String text, String authorisedUser, int k) throws SQLException {
+      String term = text.trim().toLowerCase();
+      List<Hit> hits = new ArrayList<Hit>();
+      if(term.length() == 0){
+         return hits;
+      }
+      String prefix = escapeLike(term) + "%";
+
+      Object[] params = new Object[FIELDS.length * 4 + 2];
+      int p = 0;
+      for(int i=0; i<FIELDS.length; i++){
+         params[p++] = term;
+         params[p++] = prefix;
+         params[p++] = term;
+         params[p++] = prefix;
+      }
+      params[p++] = esql.userKey(authorisedUser);
+      params[p++] = k;
+
+      List<List<String>> rows = esql.executeQueryAndReturnResult(QUERY, params);
+      for(int i=0; i<rows.size(); i++){
+         List<String> row = rows.get(i);
+         hits.add(new Hit(row.get(0), row.get(1), Double.parseDouble(row.get(2))));
+      }
+      return hits;
+   }//end search
+
+   /*
+   * Makes % and _ in the input match themselves in a LIKE pattern
+   *
+   * */
+   static String escapeLike(String text){
+      StringBuilder escaped = new StringBuilder(text.length());
+      for(int i=0; i<text.length(); i++){
+         char c = text.charAt(i);
+         if(c == '%' || c == '_' || c == '\\'){
+            escaped.append('\\');
+         }
+         escaped.append(c);
+      }
+      return escaped.toString();
+   }//end escapeLike
+
+}//end PeopleSearch
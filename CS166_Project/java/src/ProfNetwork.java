@@ -17,18 +17,22 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -37,20 +41,89 @@ import java.util.ArrayList;
  */
 public class ProfNetwork {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by every session.
+   private ConnectionPool _pool = null;
 
+   // message ids, reserved 50 at a time from msg_id_seq
+   private IdAllocator _messageIds = new IdAllocator(this, "msg_id_seq", 50);
 
-   static private int messagenum = 27812;
+   // batched writer for bulk messages, started on first use
+   private MessageSender _sender = null;
+
+   // background threads for queries issued together, started on first use
+   private QueryExecutor _queries = null;
+
+   // LISTEN connection for new message and request events, opened on first use
+   private Notifications _notifications = null;
+
+   // profiles shown by DisplayProfile, bounded by profnetwork.profileCacheBytes
+   // and reloaded after profnetwork.profileTtlMs
+   private ProfileCache _profiles = new ProfileCache(this,
+         Long.getLong("profnetwork.profileCacheBytes", 4L * 1024 * 1024),
+         Long.getLong("profnetwork.profileTtlMs", 60000L));
+
+   // userKey of each userId handle, looked up once
+   private UserKeys _userKeys = new UserKeys(this,
+         Integer.getInteger("profnetwork.userKeyCache", 100000));
+
+   // accepted connections per user, up to profnetwork.friendCacheSize users
+   private FriendSetCache _friends = new FriendSetCache(this,
+         Integer.getInteger("profnetwork.friendCacheSize", 10000));
+
+   // how degree of separation is computed: "java" walks the friends lists,
+   // "sql" asks the server with a single recursive query
+   static String reachabilityMode = System.getProperty("profnetwork.reachability", "java");
+
+   // accepted connections kept in memory, loaded at startup unless
+   // -Dprofnetwork.graphIndex=false is given
+   static volatile ConnectionIndex graph = null;
+
+   // rows fetched per round trip by executeQueryForEach
+   static final int FETCH_SIZE = Math.max(1, Integer.getInteger("profnetwork.fetchSize", 100));
+
+   // the cursor executeQueryForEach reads through, one at a time per connection
+   static final String CURSOR = "pn_rows";
+   static final String FETCH = "FETCH " + FETCH_SIZE + " FROM " + CURSOR;
+   static final String CLOSE = "CLOSE " + CURSOR;
+
+   // messages listed per page by ShowAllMessages
+   static final int PAGE_SIZE = Integer.getInteger("profnetwork.pageSize", 10);
+
+   // one page of received or sent messages, taking the userKey, the sendTime
+   // and msgId the page starts below, and the number of rows
+   static final String INBOX_PAGE = "SELECT m.msgId, u.userId, m.sendTime, m.status FROM MESSAGE m JOIN USR u ON u.userKey = m.senderKey WHERE m.receiverKey = ? AND (m.deleteStatus <> 2 AND m.deleteStatus <>3) AND (m.status <> 'Failed to Deliver' AND m.status <> 'Draft') AND (m.sendTime, m.msgId) < (CAST(? AS timestamp), ?) ORDER BY m.sendTime DESC, m.msgId DESC LIMIT ?";
+   static final String SENT_PAGE = "SELECT m.msgId, u.userId, m.sendTime, m.status FROM MESSAGE m JOIN USR u ON u.userKey = m.receiverKey WHERE m.senderKey = ? AND (m.deleteStatus <> 2 AND m.deleteStatus <>3) AND (m.status <> 'Failed to Deliver' AND m.status <> 'Draft') AND (m.sendTime, m.msgId) < (CAST(? AS timestamp), ?) ORDER BY m.sendTime DESC, m.msgId DESC LIMIT ?";
+
+   // best matches listed by SearchPeople
+   static final int SEARCH_RESULTS = Integer.getInteger("profnetwork.searchResults", 10);
+
+   // suggestions listed by PeopleYouMayKnow
+   static final int SUGGESTIONS = Integer.getInteger("profnetwork.suggestions", 10);
+
+   // mutual friends named under a profile by ConnectionSummary
+   static final int MUTUAL_SAMPLE = Integer.getInteger("profnetwork.mutualSample", 3);
+
+   /**
+    * Receives the rows of executeQueryForEach one at a time.  The result set
+    * is positioned on the current row and must not be advanced or kept.
+    */
+   public interface RowHandler {
+      boolean row (ResultSet rs) throws SQLException;
+   }//end RowHandler
 
    // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // This variable can be global for convenience, in server mode it reads
+   // from the socket of whichever session is calling.
+   static BufferedReader in = SessionConsole.input(new BufferedReader(
+                                new InputStreamReader(System.in)));
 
    /**
     * Creates a new instance of ProfNetwork
     *
+    * The number of pooled connections and the size of each connection's
+    * prepared statement cache are read from the profnetwork.poolSize and
+    * profnetwork.statementCache system properties.
+    *
     * @param hostname the MySQL or PostgreSQL server hostname
     * @param database the name of the database
     * @param username the user name used to login to the database
@@ -65,8 +138,10 @@ public class ProfNetwork {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // obtain the physical connections
+         int poolSize = Integer.getInteger("profnetwork.poolSize", 4);
+         int statementCache = Integer.getInteger("profnetwork.statementCache", 64);
+         this._pool = new ConnectionPool(url, user, passwd, poolSize, statementCache);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -75,65 +150,205 @@ public class ProfNetwork {
       }//end catch
    }//end ProfNetwork
 
+   /**
+    * Method to bind the positional parameters of a prepared statement.
+    * Strings, numbers and null are passed through as they are.
+    *
+    * @param stmt the prepared statement
+    * @param params the values for each ? in order
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i=0; i<params.length; ++i){
+         if (params[i] == null)
+            stmt.setNull (i+1, Types.VARCHAR);
+         else
+            stmt.setObject (i+1, params[i]);
+      }//end for
+   }//end bind
+
+   /**
+    * Method to estimate the bytes a materialized column value takes, for
+    * the statement metrics.
+    *
+    * @param value the column value, possibly null
+    * @return two bytes per character
+    */
+   private static long sizeOf (String value) {
+      return value == null ? 0 : 2L * value.length ();
+   }//end sizeOf
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, with a ? for each parameter
+    * @param params the values bound to the ? placeholders
+    * @return the number of rows changed
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      long rows = 0, bytes = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire ();
+      try{
+         // looks up the prepared statement object
+         PreparedStatement stmt = conn.prepare (sql);
+         bind (stmt, params);
+
+         // issues the update instruction
+         rows = stmt.executeUpdate ();
+         failed = false;
+         return (int) rows;
+      }finally{
+         this._pool.release (conn, failed);
+         Metrics.statement (sql, System.nanoTime () - start, rows, bytes, failed);
+      }
+   }//end executeUpdate
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   /**
+    * Method to execute the same update SQL statement once per row as a
+    * single JDBC batch inside one transaction.  Either every row is
+    * applied or none is.
+    *
+    * @param sql the input SQL string, with a ? for each parameter
+    * @param rows the values bound to the ? placeholders, one array per row
+    * @return the number of rows in the batch
+    * @throws java.sql.SQLException when the batch failed and was rolled back
+    */
+   public int executeBatch (String sql, List<Object[]> rows) throws SQLException {
+      long start = System.nanoTime ();
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire ();
+      try{
+         conn.connection ().setAutoCommit (false);
+
+         // looks up the prepared statement object
+         PreparedStatement stmt = conn.prepare (sql);
+         for (int i=0; i<rows.size(); ++i){
+            bind (stmt, rows.get(i));
+            stmt.addBatch ();
+         }//end for
+
+         // issues every row in one go and commits them together
+         stmt.executeBatch ();
+         conn.connection ().commit ();
+         failed = false;
+         return rows.size();
+      }finally{
+         // rolls back on failure and hands the connection back in autocommit mode
+         this._pool.release (conn, failed);
+         Metrics.statement (sql, System.nanoTime () - start, failed ? 0 : rows.size(), 0, failed);
+      }
+   }//end executeBatch
 
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   /**
+    * Method to execute an update SQL statement for many rows at once, as one
+    * statement with a VALUES list of every row.  pg73jdbc3 sends a JDBC batch
+    * one statement at a time, this is a single round trip.  The SQL is head,
+    * then row repeated once per row and separated by commas, then tail, as
+    * in "INSERT INTO T (a, b) VALUES " + "(?, ?)" + "".  Being one
+    * statement, either every row is applied or none is.
+    *
+    * @param head the SQL before the VALUES rows
+    * @param row one row of the VALUES list, with a ? for each parameter
+    * @param tail the SQL after the VALUES rows
+    * @param rows the values bound to the ? placeholders, one array per row
+    * @return the number of rows changed
+    * @throws java.sql.SQLException when the statement failed
+    */
+   public int executeValues (String head, String row, String tail, List<Object[]> rows) throws SQLException {
+      if (rows.isEmpty ())
+         return 0;
+      long start = System.nanoTime ();
+      long changed = 0;
+      boolean failed = true;
+      String sql = head + row + tail;
+      StringBuilder text = new StringBuilder (head);
+      List<Object> params = new ArrayList<Object>();
+      for (int i=0; i<rows.size(); ++i){
+         text.append (i == 0 ? "" : ", ").append (row);
+         params.addAll (Arrays.asList (rows.get(i)));
+      }//end for
+      text.append (tail);
+      ConnectionPool.PooledConnection conn = this._pool.acquire ();
+      try{
+         // the text differs with the number of rows, so it is not cached
+         PreparedStatement stmt = conn.connection ().prepareStatement (text.toString ());
+         try{
+            bind (stmt, params.toArray ());
+
+            // issues every row in one go
+            changed = stmt.executeUpdate ();
+         }finally{
+            stmt.close ();
+         }
+         failed = false;
+         return (int) changed;
+      }finally{
+         this._pool.release (conn, failed);
+         Metrics.statement (sql, System.nanoTime () - start, changed, 0, failed);
+      }
+   }//end executeValues
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string, with a ? for each parameter
+    * @param params the values bound to the ? placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      long rows = 0, bytes = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire ();
+      try{
+         // looks up the prepared statement object
+         PreparedStatement stmt = conn.prepare (query);
+         bind (stmt, params);
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         int rowCount = 0;
+
+         // iterates through the result set and output them to standard out.
+         boolean outputHeader = true;
+         while (rs.next()){
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+                  System.out.print(rsmd.getColumnName(i) + "\t");
+               }
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i){
+               String value = rs.getString (i);
+               bytes += sizeOf (value);
+               System.out.print (value + "\t");
+            }
+            System.out.println ();
+            ++rowCount;
+         }//end while
+         rs.close ();
+         rows = rowCount;
+         failed = false;
+         return rowCount;
+      }finally{
+         this._pool.release (conn, failed);
+         Metrics.statement (query, System.nanoTime () - start, rows, bytes, failed);
+      }
    }//end executeQuery
 
    /**
@@ -141,61 +356,151 @@ public class ProfNetwork {
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query string, with a ? for each parameter
+    * @param params the values bound to the ? placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-          List<String> record = new ArrayList<String>();
-         for (int i=1; i<=numCol; ++i)
-            record.add(rs.getString (i));
-         result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      long rows = 0, bytes = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire ();
+      try{
+         // looks up the prepared statement object
+         PreparedStatement stmt = conn.prepare (query);
+         bind (stmt, params);
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>(numCol);
+            for (int i=1; i<=numCol; ++i){
+               String value = rs.getString (i);
+               bytes += sizeOf (value);
+               record.add(value);
+            }
+            result.add(record);
+         }//end while
+         rs.close ();
+         rows = result.size();
+         failed = false;
+         return result;
+      }finally{
+         this._pool.release (conn, failed);
+         Metrics.statement (query, System.nanoTime () - start, rows, bytes, failed);
+      }
    }//end executeQueryAndReturnResult
 
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+    * each row to a handler as it is read, instead of building the whole
+    * result in memory.  The query is DECLAREd as a cursor inside a
+    * transaction and its rows are FETCHed profnetwork.fetchSize (default
+    * 100) at a time, so memory stays bounded however many rows match.
+    * pg73jdbc3 has no setFetchSize, so the cursor is spelled out in SQL.
+    *
+    * @param query the input query string, with a ? for each parameter
+    * @param handler called once per row, returns false to stop early
+    * @param params the values bound to the ? placeholders
+    * @return the number of rows handed to the handler
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryForEach (String query, RowHandler handler, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      long rows = 0, bytes = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire ();
+      try{
+         // a cursor only lives inside a transaction
+         conn.connection ().setAutoCommit (false);
+
+         // the driver fills the parameters into the DECLARE, which the
+         // server will not PREPARE
+         PreparedStatement declare = conn.prepare ("DECLARE " + CURSOR + " NO SCROLL CURSOR FOR " + query, false);
+         bind (declare, params);
+         declare.executeUpdate ();
+
+         PreparedStatement fetch = conn.prepare (FETCH, false);
+         int rowCount = 0;
+         boolean more = true;
+         while (more){
+            // issues one FETCH, a short batch means the cursor is done
+            ResultSet rs = fetch.executeQuery ();
+            int batch = 0;
+            try{
+               while (more && rs.next()){
+                  ++batch;
+                  ++rowCount;
+                  more = handler.row (rs);
+               }//end while
+            }finally{
+               rs.close ();
+            }
+            if (batch < FETCH_SIZE)
+               more = false;
+         }//end while
+         conn.prepare (CLOSE, false).executeUpdate ();
+
+         // commits and leaves the transaction in one step
+         conn.connection ().setAutoCommit (true);
+         rows = rowCount;
+         failed = false;
+         return rowCount;
+      }finally{
+         // rolls back a transaction left open and hands the connection back
+         // in autocommit mode
+         this._pool.release (conn, failed);
+         Metrics.statement (query, System.nanoTime () - start, rows, bytes, failed);
+      }
+   }//end executeQueryForEach
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
     *
-    * @param query the input query string
+    * @param query the input query string, with a ? for each parameter
+    * @param params the values bound to the ? placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public int executeQuery (String query, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      long rows = 0, bytes = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire ();
+      try{
+         // looks up the prepared statement object
+         PreparedStatement stmt = conn.prepare (query);
+         bind (stmt, params);
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
 
-       int rowCount = 0;
+         int rowCount = 0;
 
-       // iterates through the result set and count nuber of results.
-       if(rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+         // iterates through the result set and count nuber of results.
+         if(rs.next()){
+            rowCount++;
+         }//end while
+         rs.close ();
+         rows = rowCount;
+         failed = false;
+         return rowCount;
+      }finally{
+         this._pool.release (conn, failed);
+         Metrics.statement (query, System.nanoTime () - start, rows, bytes, failed);
+      }
    }
 
    /**
@@ -203,30 +508,209 @@ public class ProfNetwork {
     * method issues the query to the DBMS and returns the current
     * value of sequence used for autogenerated keys
     *
+    * Note that currval is per connection, so this only sees a nextval
+    * issued on whichever pooled connection it happens to be given.
+    *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      List<List<String>> rs = executeQueryAndReturnResult ("Select currval(CAST(? AS regclass))", sequence);
+      if (!rs.isEmpty())
+         return Integer.parseInt(rs.get(0).get(0));
+      return -1;
+   }
+
+   /**
+    * Method to advance a sequence and return its new value.  This
+    * method issues the query to the DBMS and returns the next
+    * value of sequence used for autogenerated keys
+    *
+    * @param sequence name of the DB sequence
+    * @return next value of a sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int getNextSeqVal(String sequence) throws SQLException {
+      List<List<String>> rs = executeQueryAndReturnResult ("Select nextval(CAST(? AS regclass))", sequence);
+      if (!rs.isEmpty())
+         return Integer.parseInt(rs.get(0).get(0));
+      return -1;
+   }
+
+   /**
+    * Method to take a fresh message id.  Ids come out of blocks reserved
+    * from msg_id_seq, so most calls do not touch the database.
+    *
+    * @return an unused msgId
+    * @throws java.sql.SQLException when a new block could not be reserved
+    */
+   public int nextMessageId() throws SQLException {
+      return this._messageIds.next ();
+   }
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+    * Method to get the batched message writer shared by every session.
+    * Queue capacity, batch size and the longest a message waits before its
+    * batch is written come from profnetwork.sendQueue, profnetwork.sendBatch
+    * and profnetwork.sendDelayMs.
+    *
+    * @return the message sender, started on first use
+    */
+   public synchronized MessageSender messageSender() {
+      if (this._sender == null){
+         this._sender = new MessageSender (this,
+            Integer.getInteger("profnetwork.sendQueue", 10000),
+            Integer.getInteger("profnetwork.sendBatch", 100),
+            Integer.getInteger("profnetwork.sendDelayMs", 50));
+      }//end if
+      return this._sender;
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to get the background query runner shared by every session.
+    * It has as many threads as profnetwork.poolSize, so it never waits on
+    * the pool for more connections than there are.
+    *
+    * @return the query runner, started on first use
+    */
+   public synchronized QueryExecutor queries() {
+      if (this._queries == null){
+         this._queries = new QueryExecutor (this,
+            Integer.getInteger("profnetwork.poolSize", 4));
+      }//end if
+      return this._queries;
+   }
+
+   /**
+    * Method to get the notification channel shared by every session.  It
+    * is turned off with -Dprofnetwork.notifications=false and checks for
+    * events every profnetwork.notifyPollMs.
+    *
+    * @return the notification channel, started on first use, or null when off
+    * @throws java.sql.SQLException when its connection could not be opened
+    */
+   public synchronized Notifications notifications() throws SQLException {
+      if (this._notifications == null && Boolean.parseBoolean(System.getProperty("profnetwork.notifications", "true"))){
+         this._notifications = new Notifications (this._pool.connect (),
+            Long.getLong("profnetwork.notifyPollMs", 500L));
+      }//end if
+      return this._notifications;
+   }
+
+   /**
+    * Method to start an input query SQL instruction (i.e. SELECT) in the
+    * background and return at once.  Queries started one after the other
+    * this way run at the same time on different pooled connections.
+    *
+    * @param query the input query string, with a ? for each parameter
+    * @param params the values bound to the ? placeholders
+    * @return the query result as a list of records, once it is done;
+    *         QueryExecutor.await waits for it
+    */
+   public Future<List<List<String>>> executeQueryAsync (String query, Object... params) {
+      return queries ().query (query, params);
+   }//end executeQueryAsync
+
+   /**
+    * Method to get the profile cache shared by every session.  Anything that
+    * changes a profile must invalidate that user's entry.
+    *
+    * @return the profile cache
+    */
+   public ProfileCache profiles() {
+      return this._profiles;
+   }
+
+   /**
+    * Method to get the friend set cache shared by every session.  Anything
+    * that changes a connection must invalidate both of its users.
+    *
+    * @return the friend set cache
+    */
+   public FriendSetCache friendSets() {
+      return this._friends;
+   }
+
+   /**
+    * Method to get the integer userKey that every table stores for a user.
+    * Keys are cached, so a session looks up each handle once.
+    *
+    * @param userId the login handle
+    * @return the user's key, or -1 if there is no such user
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int userKey(String userId) throws SQLException {
+      return this._userKeys.key (userId);
+   }
+
+   /**
+    * Method to get the userKey of a user that has to exist.
+    *
+    * @param userId the login handle
+    * @return the user's key
+    * @throws java.sql.SQLException when there is no such user
+    */
+   public int requireUserKey(String userId) throws SQLException {
+      return this._userKeys.require (userId);
+   }
+
+   /**
+    * Method to compute the degree of separation between two users on the
+    * server.  One recursive query walks the accepted connections in both
+    * directions, so no friends list is shipped back to the client.
+    *
+    * @param from the user the walk starts at
+    * @param to the user being looked for
+    * @param maxHops the furthest the walk is allowed to go
+    * @return the shortest number of hops, or -1 if to is further than maxHops
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int hopsBetween(String from, String to, int maxHops) throws SQLException {
+      if (from.equals(to))
+         return 0;
+      int fromKey = userKey (from);
+      int toKey = userKey (to);
+      if (fromKey < 0 || toKey < 0)
+         return -1;
+      List<List<String>> rs = executeQueryAndReturnResult (
+         "WITH RECURSIVE walk(userKey, hops) AS ( " +
+            "SELECT CAST(? AS integer), 0 " +
+            "UNION " +
+            "SELECT CASE WHEN c.userKey = w.userKey THEN c.connectionKey ELSE c.userKey END, w.hops + 1 " +
+            "FROM walk w JOIN CONNECTION_USR c ON (c.userKey = w.userKey OR c.connectionKey = w.userKey) " +
+            "WHERE c.status = 'Accept' AND w.hops < ? AND w.userKey <> ? " +
+         ") SELECT min(hops) FROM walk WHERE userKey = ?", fromKey, maxHops, toKey, toKey);
+      if (rs.isEmpty() || rs.get(0).get(0) == null)
+         return -1;
+      return Integer.parseInt(rs.get(0).get(0));
+   }//end hopsBetween
+
+   /**
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
+      if (Boolean.getBoolean("profnetwork.cacheStats")){
+         System.out.println ("Profile cache: " + this._profiles);
+         System.out.println ("Friend cache: " + this._friends);
+      }//end if
+      if (Long.getLong("profnetwork.metricsInterval", 0L) > 0){
+         Metrics.dump ();
+      }//end if
+      synchronized (this){
+         if (this._sender != null){
+            this._sender.close ();
          }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+         if (this._queries != null){
+            this._queries.close ();
+         }//end if
+         if (this._notifications != null){
+            this._notifications.close ();
+         }//end if
+      }
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -256,80 +740,191 @@ public class ProfNetwork {
          String user = args[2];
          esql = new ProfNetwork (dbname, dbport, user, "");
 
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
+         LoadConnectionIndex(esql);
+         Metrics.export();
+
+         RunMenus(esql);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+   /*
+    * Loads the in memory connection index unless it has been turned off
+    * with -Dprofnetwork.graphIndex=false
+    **/
+   public static void LoadConnectionIndex(ProfNetwork esql) throws SQLException {
+      if(Boolean.parseBoolean(System.getProperty("profnetwork.graphIndex", "true"))){
+         System.out.print("Loading connection index...");
+         graph = ConnectionIndex.load(esql);
+         System.out.println("Done");
+      }//end if
+   }//end LoadConnectionIndex
+
+   /*
+    * Returns the user's counters for the menu badges, or all zero when they
+    * cannot be read so the menu still shows
+    **/
+   public static Counters LoadCounters(ProfNetwork esql, String authorisedUser){
+      try{
+         return Counters.load(esql, authorisedUser);
+      }catch(SQLException e){
+         System.err.println(e.getMessage());
+         return new Counters();
+      }//end try
+   }//end LoadCounters
+
+   /*
+    * Returns the connection index, loading it on first use when it was not
+    * loaded at startup
+    **/
+   public static synchronized ConnectionIndex ConnectionGraph(ProfNetwork esql) throws SQLException {
+      if(graph == null){
+         graph = ConnectionIndex.load(esql);
+      }//end if
+      return graph;
+   }//end ConnectionGraph
+
+   /*
+    * Runs the main menu and, once logged in, the user menu until the user
+    * exits.  Used by both the console and every server session.
+    **/
+   public static void RunMenus(ProfNetwork esql){
+      boolean keepon = true;
+      while(keepon) {
+         // These are sample SQL statements
 		    System.out.println("\n");
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("3. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 3: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
+         System.out.println("MAIN MENU");
+         System.out.println("---------");
+         System.out.println("1. Create user");
+         System.out.println("2. Log in");
+         System.out.println("3. < EXIT");
+         String authorisedUser = null;
+         //each flow is timed without the time spent waiting for input
+         long mark = Metrics.start();
+         switch (readChoice()){
+            case 1: CreateUser(esql); Metrics.action("CreateUser", mark); break;
+            case 2: authorisedUser = LogIn(esql); Metrics.action("LogIn", mark); break;
+            case 3: keepon = false; break;
+            default : System.out.println("Unrecognized choice!"); break;
+         }//end switch
+         if (authorisedUser != null) {
+           boolean usermenu = true;
+           //new messages and requests are announced until the user logs out
+           Notifications.Listener notices = SubscribeNotices(esql, authorisedUser);
+           try{
+           while(usermenu) {
+             Counters counters = LoadCounters(esql, authorisedUser);
 		        System.out.println("\n");
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. Go to Friend List");
-                System.out.println("2. Update Profile");
+             System.out.println("MAIN MENU");
+             System.out.println("---------");
+             System.out.println("1. Go to Friend List");
+             System.out.println("2. Update Profile");
 				System.out.println("3. Display Your Profile");
 				System.out.println("4. Search for People");
-				System.out.println("5. View/Edit Messages");
-				System.out.println("6. View/Reject Connection Requests");
-                System.out.println(".........................");
-                System.out.println("7. Log out");
-                switch (readChoice()){
-                   case 1: 
+				System.out.println("5. View/Edit Messages" + (counters.unread > 0 ? " (" + counters.unread + " unread)" : ""));
+				System.out.println("6. View/Reject Connection Requests" + (counters.requestsIn > 0 ? " (" + counters.requestsIn + " pending)" : ""));
+				System.out.println("7. People You May Know");
+             System.out.println(".........................");
+             System.out.println("8. Log out");
+             String action = null;
+             mark = Metrics.start();
+             switch (readChoice()){
+                case 1: 
 				   	FriendList(esql,authorisedUser); 
+				   	action = "FriendList";
 				   	break;
-                   case 2: 
+                case 2: 
 				   	UpdateProfile(esql,authorisedUser); 
+				   	action = "UpdateProfile";
 				   	break;
-                   case 3:
+                case 3:
 				    DisplayProfile(esql, authorisedUser);
+				    action = "DisplayProfile";
 					break;
 				   case 4:
 				    SearchPeople(esql, authorisedUser);
+				    action = "SearchPeople";
 					break;
 				   case 5:
 				    Messages(esql, authorisedUser);
+				    action = "Messages";
 					break;
 				   case 6:
 				    Connections(esql, authorisedUser);
+				    action = "Connections";
 					break;
-                   case 7: 
+				   case 7:
+				    PeopleYouMayKnow(esql, authorisedUser);
+				    action = "PeopleYouMayKnow";
+					break;
+                case 8: 
 				   	usermenu = false; 
 				   	break;
-                   default : 
+                default : 
 				   	System.out.println("Unrecognized choice!"); 
 					break;
-                }
-              }
+             }
+             if (action != null) {
+               Metrics.action(action, mark);
+             }
+           }
+           }finally{
+             UnsubscribeNotices(esql, authorisedUser, notices);
+           }
+         }
+      }//end while
+   }//end RunMenus
+
+   /*
+    * Subscribes the calling session to the user's new message and new
+    * request events, returns null when notifications are off or the
+    * subscription failed
+    **/
+   public static Notifications.Listener SubscribeNotices(ProfNetwork esql, String authorisedUser){
+      try{
+         Notifications notifications = esql.notifications();
+         if(notifications == null){
+            return null;
+         }//end if
+         final SessionConsole.Notices session = SessionConsole.notices();
+         Notifications.Listener listener = new Notifications.Listener(){
+            public void event(String type){
+               if(type.equals(Notifications.MESSAGE))
+                  session.post("You have a new message");
+               else
+                  session.post("You have a new connection request");
             }
-         }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
+         };
+         notifications.subscribe(esql.requireUserKey(authorisedUser), listener);
+         return listener;
+      }catch(SQLException e){
+         System.err.println(e.getMessage());
+         return null;
       }//end try
-   }//end main
+   }//end SubscribeNotices
+
+   public static void UnsubscribeNotices(ProfNetwork esql, String authorisedUser, Notifications.Listener listener){
+      if(listener == null){
+         return;
+      }//end if
+      try{
+         esql.notifications().unsubscribe(esql.requireUserKey(authorisedUser), listener);
+      }catch(SQLException e){
+         System.err.println(e.getMessage());
+      }//end try
+   }//end UnsubscribeNotices
 
    public static void Greeting(){
       System.out.println(
@@ -372,9 +967,9 @@ public class ProfNetwork {
          String email = in.readLine();
 
 	 //Creating empty contact\block lists for a user
-	 String query = String.format("INSERT INTO USR (userId, password, email) VALUES ('%s','%s','%s')", login, password, email);
+	 String query = "INSERT INTO USR (userId, password, email) VALUES (?, ?, ?)";
 
-         esql.executeUpdate(query);
+         esql.executeUpdate(query, login, password, email);
          System.out.println ("User successfully created!");
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -391,8 +986,8 @@ public class ProfNetwork {
          System.out.print("\tEnter user password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQuery(query);
+         String query = "SELECT userId FROM USR WHERE userId = ? AND password = ?";
+         int userNum = esql.executeQuery(query, login, password);
 	 if (userNum > 0)
 		return login;
          return null;
@@ -451,8 +1046,8 @@ public class ProfNetwork {
 	   try{
 	   	System.out.println("Please input your new password:");
        	String pw = in.readLine();
-	   	String query = String.format("UPDATE USR SET password = '%s' WHERE userId='%s'", pw, authorisedUser); 
-	   	esql.executeUpdate(query);
+	   	String query = "UPDATE USR SET password = ? WHERE userId = ?";
+	   	esql.executeUpdate(query, pw, authorisedUser);
 	   	System.out.println("Password updated!");
 	   }catch (Exception e){
 			System.err.println (e.getMessage ());
@@ -469,8 +1064,9 @@ public class ProfNetwork {
 	   try{
 	   	System.out.println("Please input your new email:");
        	String email = in.readLine();
-	   	String query = String.format("UPDATE USR SET email = '%s' WHERE userId='%s'", email, authorisedUser); 
-	   	esql.executeUpdate(query);
+	   	String query = "UPDATE USR SET email = ? WHERE userId = ?";
+	   	esql.executeUpdate(query, email, authorisedUser);
+	   	esql.profiles().invalidate(authorisedUser);
 	   	System.out.println("Email updated!");
 	   }catch (Exception e){
 			System.err.println (e.getMessage ());
@@ -486,8 +1082,9 @@ public class ProfNetwork {
 	   try{
 	   	System.out.print("Please input your new name: ");
        	String name = in.readLine();
-	   	String query = String.format("UPDATE USR SET name = '%s' WHERE userId='%s'", name, authorisedUser); 
-	   	esql.executeUpdate(query);
+	   	String query = "UPDATE USR SET name = ? WHERE userId = ?";
+	   	esql.executeUpdate(query, name, authorisedUser);
+	   	esql.profiles().invalidate(authorisedUser);
 	   	System.out.println("Name updated!");
 	   }catch (Exception e){
 			System.err.println (e.getMessage ());
@@ -519,8 +1116,9 @@ public class ProfNetwork {
 		 String end = in.readLine();
 		 if(end.equals("q")) return;
 		
-		 String query = String.format("INSERT INTO WORK_EXPR (userId, company, role, location, startDate, endDate) VALUES ('%s','%s','%s', '%s', '%s', '%s')", authorisedUser, comp, rol, loc, start, end);
-         esql.executeUpdate(query);
+		 String query = "INSERT INTO WORK_EXPR (userKey, company, role, location, startDate, endDate) VALUES (?, ?, ?, ?, CAST(? AS date), CAST(? AS date))";
+         esql.executeUpdate(query, esql.requireUserKey(authorisedUser), comp, rol, loc, start, end);
+         esql.profiles().invalidate(authorisedUser);
          System.out.println ("Work experience added!!");
 
 	   }catch(Exception e){
@@ -552,8 +1150,9 @@ public class ProfNetwork {
 		 String end = in.readLine();
 		 if(end.equals("q")) return;
 		
-		 String query = String.format("INSERT INTO EDUCATIONAL_DETAILS (userId, instituitionName, major, degree, startDate, endDate) VALUES ('%s','%s','%s', '%s', '%s', '%s')", authorisedUser, inst, maj, deg, start, end);
-         esql.executeUpdate(query);
+		 String query = "INSERT INTO EDUCATIONAL_DETAILS (userKey, instituitionName, major, degree, startDate, endDate) VALUES (?, ?, ?, ?, CAST(? AS date), CAST(? AS date))";
+         esql.executeUpdate(query, esql.requireUserKey(authorisedUser), inst, maj, deg, start, end);
+         esql.profiles().invalidate(authorisedUser);
          System.out.println ("Education experience added!!");
 
 	   }catch(Exception e){
@@ -567,7 +1166,7 @@ public class ProfNetwork {
    * */
    public static void SearchPeople(ProfNetwork esql, String authorisedUser){
        try{
-		   System.out.print("Please enter the userId of the person you would like to search for: ");
+		   System.out.print("Please enter a userId, name, email, company or school to search for: ");
 		   String search = in.readLine();
 
 		   if(authorisedUser.equals(search) ){
@@ -575,15 +1174,33 @@ public class ProfNetwork {
 		   }
 
 		   else{
-	           String query = String.format("SELECT * FROM USR WHERE userId='" +search + "'");
-			   int exists = esql.executeQuery(query);
-			   if(exists != 0){//user found
+			   List<PeopleSearch.Hit> hits = PeopleSearch.search(esql, search, authorisedUser, SEARCH_RESULTS);
+			   if(hits.isEmpty()){
+				   System.out.println("No users match your search!");
+			   }
+			   else if(hits.get(0).userId.equals(search)){//exact userId, go straight there
 				   System.out.println("The user exists....going to profile");
 				   DisplayProfile(esql, search);
+				   ConnectionSummary(esql, authorisedUser, search);
 				   OptionMenu(esql, authorisedUser, search);
 			   }
 			   else{
-				   System.out.println("The user does not exist!");
+				   System.out.println("\nSEARCH RESULTS(to view a profile select their number): ");
+	               System.out.println("---------");
+				   int i=0;
+				   for(; i<hits.size(); i++){
+					   PeopleSearch.Hit hit = hits.get(i);
+					   System.out.println((i+1) + ". " + hit.userId + (hit.name != null ? " (" + hit.name + ")" : ""));
+				   }
+	               System.out.println(".........................");
+				   System.out.println( (i+1) + ". Go back");
+
+				   int choice = readChoice();
+				   if(choice != (i+1)){
+					   DisplayProfile(esql, hits.get(choice-1).userId);
+					   ConnectionSummary(esql, authorisedUser, hits.get(choice-1).userId);
+					   OptionMenu(esql, authorisedUser, hits.get(choice-1).userId);
+				   }
 			   }
 		   }
 	   }catch(Exception e){
@@ -591,6 +1208,40 @@ public class ProfNetwork {
 	   }
    }//end
 
+   /*
+   * Lists friends of friends the user is not connected to yet, most
+   * mutual connections and shared companies and schools first
+   *
+   * */
+   public static void PeopleYouMayKnow(ProfNetwork esql, String authorisedUser){
+       try{
+		   List<Recommendations.Suggestion> suggestions = Recommendations.suggest(esql, authorisedUser, SUGGESTIONS);
+		   if(suggestions.isEmpty()){
+			   System.out.println("No suggestions yet, make some connections first!");
+			   return;
+		   }
+		   System.out.println("\nPEOPLE YOU MAY KNOW(to view a profile select their number): ");
+           System.out.println("---------");
+		   int i=0;
+		   for(; i<suggestions.size(); i++){
+			   Recommendations.Suggestion suggestion = suggestions.get(i);
+			   System.out.println((i+1) + ". " + suggestion.userId + " (" + suggestion.mutual + " mutual connections"
+				   + (suggestion.shared > 0 ? ", " + suggestion.shared + " workplaces or schools in common" : "") + ")");
+		   }
+           System.out.println(".........................");
+		   System.out.println( (i+1) + ". Go back");
+
+		   int choice = readChoice();
+		   if(choice >= 1 && choice <= i){
+			   DisplayProfile(esql, suggestions.get(choice-1).userId);
+			   ConnectionSummary(esql, authorisedUser, suggestions.get(choice-1).userId);
+			   OptionMenu(esql, authorisedUser, suggestions.get(choice-1).userId);
+		   }
+	   }catch(Exception e){
+		   System.err.println(e.getMessage());
+	   }
+   }//end
+
    /* 
    * View friends list with option to go to their profile
    *
@@ -617,6 +1268,7 @@ public class ProfNetwork {
 			   }
 			   else{//they have chosen to view a profile, display it
 				   DisplayProfile(esql,FriendsList.get(choice-1));
+				   ConnectionSummary(esql, authorisedUser, FriendsList.get(choice-1));
 				   OptionMenu(esql,authorisedUser, FriendsList.get(choice-1));
 			   }
 		   }//end while
@@ -642,15 +1294,14 @@ public class ProfNetwork {
 
 			   switch(readChoice() ){
 				   case 1:
-		   			List<String> numFriends = new ArrayList<String>();
-					numFriends = getFriendsList(esql, authorisedUser);
-				    int numconnections = NumberConnections(esql, authorisedUser);
+					Counters counters = Counters.load(esql, authorisedUser);
+				    int numconnections = counters.requestsOut;
 
 					
-				    if( (numFriends.size() == 0) && (numconnections > 5) && ThreeLevels(esql, authorisedUser, friendUser)){//within 3 levels and at least 5 connections
+				    if( (counters.friends == 0) && (numconnections > 5) && ThreeLevels(esql, authorisedUser, friendUser)){//within 3 levels and at least 5 connections
 						SendConnection(esql, authorisedUser, friendUser);
 					}
-					else if(numFriends.contains(friendUser) ){
+					else if(esql.friendSets().get(authorisedUser).contains(friendUser) ){
 						System.out.println("This user is already your friend!");
 					}
 					else if( numconnections < 5){
@@ -682,10 +1333,7 @@ public class ProfNetwork {
    * */
    public static int NumberConnections(ProfNetwork esql, String authorisedUser ){
 	   try{
-		   String query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '" + authorisedUser + "' AND status = 'Request'");
-	       List<List<String> > conn = new ArrayList<List<String> >();
-		   conn = esql.executeQueryAndReturnResult(query);
-		   return conn.size(); 
+		   return Counters.load(esql, authorisedUser).requestsOut;
 
 	   }catch(Exception e){
 		   System.err.println(e.getMessage() );
@@ -699,37 +1347,40 @@ public class ProfNetwork {
    * */
    public static boolean ThreeLevels(ProfNetwork esql, String authorisedUser, String desiredUser){
 	   try{
-		   List<String> levelone = new ArrayList<String>();
-		   List<String> leveltwo = new ArrayList<String>();
-		   List<String> levelthree = new ArrayList<String>();
-
-		   List<String> allLevels = new ArrayList<String>();
-		   
-		   //this is a list of all of your friends, level one
-		   levelone = getFriendsList(esql, authorisedUser);
-		   allLevels.addAll(levelone);
-
-		   for(int i=0; i<levelone.size(); i++){
-			   leveltwo.addAll(getFriendsList(esql, levelone.get(i)) );
-			   allLevels.addAll(leveltwo);
-
-			   for(int j=0; j<leveltwo.size(); j++){
-				   levelthree.addAll(getFriendsList(esql, leveltwo.get(j)));
-				   allLevels.addAll(levelthree);
-			   }
-		   }
-
-		   if(allLevels.contains(desiredUser) ){
-			   return true;
-		   }
-		   else{
-			   return false;
-		   }
+		   return DegreeOfSeparation(esql, authorisedUser, desiredUser, 3) >= 0;
 	   }catch(Exception e){
 		   System.err.println(e.getMessage() );
 		   return false;
 	   }
    }//end
+
+   /*
+   * Returns the shortest number of hops between two users, or -1 if they
+   * are more than maxHops apart
+   *
+   * */
+   public static int DegreeOfSeparation(ProfNetwork esql, String authorisedUser, String desiredUser, int maxHops) throws SQLException {
+	   if(reachabilityMode.equals("sql")){
+		   return esql.hopsBetween(authorisedUser, desiredUser, maxHops);
+	   }
+	   if(graph != null){
+		   return Reachability.distance(graph, authorisedUser, desiredUser, maxHops);
+	   }
+	   //searches from both users at once, each friends list is fetched at most once
+	   return Reachability.distance(friendsOf(esql), authorisedUser, desiredUser, maxHops);
+   }//end
+
+   /*
+   * Friends lists of the network as seen by the reachability search
+   *
+   * */
+   public static Reachability.Neighbors friendsOf(final ProfNetwork esql){
+	   return new Reachability.Neighbors(){
+		   public List<String> of(String userId){
+			   return getFriendsList(esql, userId);
+		   }
+	   };
+   }//end
 	
    /*
    * Send a connection request from authorisedUser to friendUser
@@ -737,8 +1388,9 @@ public class ProfNetwork {
    * */
    public static void SendConnection(ProfNetwork esql, String authorisedUser, String friendUser){
 	   try{
-		   String query = String.format("INSERT INTO CONNECTION_USR(userId, connectionId, status) VALUES('%s', '%s', 'Request')", authorisedUser, friendUser);
-		   esql.executeUpdate(query);
+		   String query = "INSERT INTO CONNECTION_USR(userKey, connectionKey, status) VALUES(?, ?, 'Request')";
+		   esql.executeUpdate(query, esql.requireUserKey(authorisedUser), esql.requireUserKey(friendUser));
+		   ConnectionChanged(esql, authorisedUser, friendUser, "Request");
 		   System.out.println("Connection Request Sent!");
 
 	   }catch(Exception e){
@@ -760,9 +1412,7 @@ public class ProfNetwork {
 			   System.out.println("Message is too long.");
 		   }
 		   else{
-			   String query = String.format("INSERT INTO MESSAGE (msgId, senderId, receiverId, contents, sendTime,deleteStatus, status) VALUES ('%d', '%s', '%s', '%s', '%s', '%d', '%s')", messagenum, authorisedUser, friendUser, msgcontent, "1992-06-02 10:30:12 -0700", 0, "Delivered" );
-			   messagenum++;
-			   esql.executeUpdate(query);
+			   InsertMessage(esql, authorisedUser, friendUser, msgcontent);
 			   System.out.println("Message Sent!\n");
 		   }
 	   }catch(Exception e){
@@ -771,33 +1421,77 @@ public class ProfNetwork {
 
    }//end
 
+   /*
+   * Stores a single delivered message from authorisedUser to friendUser, sent now
+   *
+   * */
+   public static void InsertMessage(ProfNetwork esql, String authorisedUser, String friendUser, String msgcontent) throws SQLException {
+	   esql.executeUpdate(MessageSender.INSERT, esql.nextMessageId(), esql.requireUserKey(authorisedUser),
+			   esql.requireUserKey(friendUser), msgcontent,
+			   new Timestamp(System.currentTimeMillis()));
+   }//end
+
+   /*
+   * Sends the same message to every friend of authorisedUser through the
+   * batched message writer
+   *
+   * */
+   public static void MessageAllFriends(ProfNetwork esql, String authorisedUser){
+	   try{
+		   System.out.println("\nMESSAGE ALL FRIENDS:");
+           System.out.println("---------");
+		   System.out.println("Please enter your message contents: ");
+		   String msgcontent = in.readLine();
+		   if(msgcontent.length() > 500){
+			   System.out.println("Message is too long.");
+			   return;
+		   }
+		   int sent = BroadcastMessage(esql, authorisedUser, getFriendsList(esql, authorisedUser), msgcontent);
+		   System.out.println("Message sent to " + sent + " friends!\n");
+	   }catch(Exception e){
+		   System.err.println(e.getMessage() );
+	   }
+   }//end
+
+   /*
+   * Queues one message per receiver and waits until all of them are stored
+   *
+   * */
+   public static int BroadcastMessage(ProfNetwork esql, String authorisedUser, List<String> receivers, String msgcontent) throws SQLException {
+	   MessageSender sender = esql.messageSender();
+	   MessageSender.Ticket ticket = sender.ticket();
+	   for(int i=0; i<receivers.size(); i++){
+		   sender.send(ticket, authorisedUser, receivers.get(i), msgcontent);
+	   }
+	   return ticket.await();
+   }//end
+
    /*
    * Returns the friends list for authorisedUser
    *
    * */
    public static List<String> getFriendsList(ProfNetwork esql, String authorisedUser){
 	   try{
-		   List<String> FriendsList = new ArrayList<String>();
-	       String query = String.format("SELECT connectionId FROM CONNECTION_USR WHERE userId='" + authorisedUser +"' AND status = 'Accept'");
-	       List<List<String> > friends = new ArrayList<List<String> >();
-	       friends = esql.executeQueryAndReturnResult(query);
-	       for(int i=0; i<friends.size();i++){
-		      FriendsList.add(friends.get(i).get(0));
-	       }
-		   
-	       query = String.format("SELECT userId FROM CONNECTION_USR WHERE connectionId='" + authorisedUser +"' AND status = 'Accept'");
-	       friends.clear();
-	       friends = esql.executeQueryAndReturnResult(query);
-	       for(int i=0; i<friends.size();i++){
-		       FriendsList.add(friends.get(i).get(0));
-	       }
-	       return FriendsList;
+		   return new ArrayList<String>(esql.friendSets().get(authorisedUser));
 	   }catch(Exception e){
 		   System.err.println(e.getMessage());
 		   return null;
 	   }
    }
 
+   /*
+   * Records a changed connection in the connection index and drops the
+   * cached friends of both users
+   *
+   * */
+   public static void ConnectionChanged(ProfNetwork esql, String userId, String connectionId, String status){
+	   if(graph != null){
+		   graph.update(userId, connectionId, status);
+	   }
+	   esql.friendSets().invalidate(userId);
+	   esql.friendSets().invalidate(connectionId);
+   }//end
+
    /*
    * Function that allows the user to view and delete their messages
    *
@@ -815,8 +1509,9 @@ public class ProfNetwork {
 			   
 			   System.out.println("1. View/read messages");
 			   System.out.println("2. Delete messages");
+			   System.out.println("3. Message all friends");
                System.out.println(".........................");
-			   System.out.println("3. Go back");
+			   System.out.println("4. Go back");
 			   
 			   switch (readChoice()){
 				   case 1:
@@ -826,6 +1521,9 @@ public class ProfNetwork {
 				    DeleteMessages(esql, authorisedUser);
 				    break;
 				   case 3:
+				    MessageAllFriends(esql, authorisedUser);
+				    break;
+				   case 4:
 				    messageMenu = false; 
 				    break;
 				   default : System.out.println("Unrecognized choice!"); 
@@ -838,43 +1536,118 @@ public class ProfNetwork {
    }//end
    
    /*
-   * Connections menu, asks you if you want to accept or deny requests
+   * Connections menu, asks you if you want to accept or deny requests,
+   * one at a time or many at once
    *
    * */
    public static void Connections(ProfNetwork esql, String authorisedUser){
 	   try{
 		   boolean connectionsMenu = true;
-     	   String query = String.format("SELECT userId FROM CONNECTION_USR WHERE connectionId='" +authorisedUser + "' AND status = 'Request'"); 
-		   System.out.println("\nYOUR CONNECTION REQUESTS: ");
-           System.out.println("---------");
-
-	       List<List<String> > requests = new ArrayList<List<String> >();
+		   //requests are listed by requester userId a page at a time, each page
+		   //starting after the last userId of the one before
+		   List<String> pageStarts = new ArrayList<String>();
+		   pageStarts.add("");
 
 		   while(connectionsMenu){
-			   requests = esql.executeQueryAndReturnResult(query);
-			   
+			   List<String> requests = RequestTriage.page(esql, authorisedUser, pageStarts.get(pageStarts.size() - 1), PAGE_SIZE + 1);
+			   boolean more = requests.size() > PAGE_SIZE;
+			   if(more){
+				   requests = requests.subList(0, PAGE_SIZE);
+			   }
+
+			   System.out.println("\nYOUR CONNECTION REQUESTS (" + Counters.load(esql, authorisedUser).requestsIn
+				   + " pending, page " + pageStarts.size() + "): ");
+               System.out.println("---------");
 			   int i=0;
 		       for(; i<requests.size(); i++){
-				   System.out.println(i+1 + ". " + requests.get(i).get(0) );
-			       
+				   System.out.println(i+1 + ". " + requests.get(i) );
 		   	   }
                System.out.println(".........................");
-			   System.out.println( (i+1) + ". Go back");
+			   System.out.println( (i+1) + (more ? ". Next page" : ". Next page (no more requests)"));
+			   System.out.println( (i+2) + ". Previous page");
+			   System.out.println( (i+3) + ". Accept all requests");
+			   System.out.println( (i+4) + ". Reject all requests");
+			   System.out.println( (i+5) + ". Accept or reject requests from userIds starting with...");
+			   System.out.println( (i+6) + ". Accept or reject several requests on this page");
+			   System.out.println( (i+7) + ". Go back");
 		       System.out.println("\n");
 			   
 			   int choice = readChoice();
-			   if(choice == (i+1)){
+			   List<String> decided = null;
+			   if(choice >= 1 && choice <= i){
+				   AcceptDenyConnection(esql, authorisedUser, requests.get(choice-1));
+			   }
+			   else if(choice == (i+1)){
+				   if(more){
+					   pageStarts.add(requests.get(i-1));
+				   }
+			   }
+			   else if(choice == (i+2)){
+				   if(pageStarts.size() > 1){
+					   pageStarts.remove(pageStarts.size() - 1);
+				   }
+			   }
+			   else if(choice == (i+3) || choice == (i+4)){
+				   decided = RequestTriage.decide(esql, authorisedUser, choice == (i+3), null, null);
+			   }
+			   else if(choice == (i+5)){
+				   System.out.print("\tEnter the start of the userIds: ");
+				   String prefix = in.readLine();
+				   Boolean accept = ReadAcceptOrReject();
+				   if(accept != null){
+					   decided = RequestTriage.decide(esql, authorisedUser, accept, prefix, null);
+				   }
+			   }
+			   else if(choice == (i+6)){
+				   System.out.print("\tEnter the numbers of the requests, separated by spaces: ");
+				   String[] picked = in.readLine().trim().split("[\\s,]+");
+				   List<String> selected = new ArrayList<String>();
+				   for(int p=0; p<picked.length; p++){
+					   try{
+						   int n = Integer.parseInt(picked[p]);
+						   if(n >= 1 && n <= i)
+							   selected.add(requests.get(n-1));
+					   }catch(NumberFormatException e){
+						   //not a number, skipped
+					   }
+				   }
+				   Boolean accept = selected.isEmpty() ? null : ReadAcceptOrReject();
+				   if(accept != null){
+					   decided = RequestTriage.decide(esql, authorisedUser, accept, null, selected);
+				   }
+			   }
+			   else if(choice == (i+7)){
 				   connectionsMenu = false;
 			   }
 			   else{
-				   AcceptDenyConnection(esql, authorisedUser, requests.get(choice-1).get(0));
+				   System.out.println("Unrecognized choice!");
 			   }//end else
-			   
+
+			   if(decided != null){
+				   System.out.println(decided.size() + (decided.size() == 1 ? " request" : " requests") + " updated");
+				   //the pages shown before may have lost rows
+				   pageStarts.subList(1, pageStarts.size()).clear();
+			   }
 		   }//end while
 	   }catch(Exception e){
 		   System.err.println(e.getMessage() );
 	   }
    }//end
+
+   /*
+   * Asks whether to accept or reject, returns null to go back
+   *
+   * */
+   public static Boolean ReadAcceptOrReject(){
+	   System.out.println("1. Accept");
+	   System.out.println("2. Reject");
+	   System.out.println("3. Go back");
+	   switch(readChoice()){
+		   case 1: return Boolean.TRUE;
+		   case 2: return Boolean.FALSE;
+		   default: return null;
+	   }
+   }//end
    
 
    public static void AcceptDenyConnection(ProfNetwork esql, String authorisedUser, String con){
@@ -890,12 +1663,14 @@ public class ProfNetwork {
 
 			   switch(readChoice() ){
 				   case 1:
-                     String query = String.format("UPDATE CONNECTION_USR SET status = 'Accept' WHERE userid = '" + con + "' AND connectionId = '" + authorisedUser + "'");
-					 esql.executeUpdate(query);
+                     String query = "UPDATE CONNECTION_USR SET status = 'Accept' WHERE userKey = ? AND connectionKey = ?";
+					 esql.executeUpdate(query, esql.requireUserKey(con), esql.requireUserKey(authorisedUser));
+					 ConnectionChanged(esql, con, authorisedUser, "Accept");
 					 break;
 					case 2:
-                     String nquery = String.format("UPDATE CONNECTION_USR SET status = 'Reject' WHERE userid = '" + con + "' AND connectionId = '" + authorisedUser + "'");
-					 esql.executeUpdate(nquery);
+                     String nquery = "UPDATE CONNECTION_USR SET status = 'Reject' WHERE userKey = ? AND connectionKey = ?";
+					 esql.executeUpdate(nquery, esql.requireUserKey(con), esql.requireUserKey(authorisedUser));
+					 ConnectionChanged(esql, con, authorisedUser, "Reject");
 					 break;
 					case 3:
 					 editrequest=false;
@@ -918,59 +1693,102 @@ public class ProfNetwork {
    public static void ShowAllMessages(ProfNetwork esql, String authorisedUser){
 	   try{
 		   boolean viewmessages = true;
-     	   String query = String.format("SELECT msgId, senderId, sendTime, status FROM MESSAGE WHERE receiverId='" +authorisedUser + "' AND (deleteStatus <> 2 AND deleteStatus <>3) AND (status <> 'Failed to Deliver' AND status <> 'Draft')");
-	       List<List<String> > allMessages = new ArrayList<List<String> >();
+		   int userKey = esql.requireUserKey(authorisedUser);
+		   //pages are found by seeking past the (sendTime, msgId) of the previous
+		   //page's last message, newest first, so every page costs the same
+     	   String query = INBOX_PAGE;
 
-     	   String squery = String.format("SELECT msgId, receiverId, sendTime, status FROM MESSAGE WHERE senderId='" +authorisedUser + "' AND (deleteStatus <> 2 AND deleteStatus <>3) AND (status <> 'Failed to Deliver' AND status <> 'Draft')");
-		   List<List<String> > sentMessages = new ArrayList<List<String> >();
+     	   String squery = SENT_PAGE;
+
+		   boolean received = true;
+		   //where each page shown so far starts, the last one is the current page
+		   List<Object[]> pageStarts = new ArrayList<Object[]>();
+		   pageStarts.add(new Object[]{"infinity", Integer.MAX_VALUE});
 
            System.out.println("\nALL MESSAGES: ");
            System.out.println("---------");
 			   
 
-		   while(viewmessages){
-	           allMessages = esql.executeQueryAndReturnResult(query);
-			   sentMessages = esql.executeQueryAndReturnResult(squery);
-
-			   System.out.println("Received Messages:");
-               System.out.println("---------");
-			   int i=0;
-		       for(; i<allMessages.size(); i++){
-
-				   System.out.print(i+1 + ". " + allMessages.get(i).get(1) + " " + allMessages.get(i).get(2) + " ");
-			       if(allMessages.get(i).get(3).equals("Delivered"))
-					   System.out.print("Unread");
-			       else
-					   System.out.print("Read");
-				   System.out.print("\n");
-		   	   }
-
-			   allMessages.addAll(sentMessages);
-
-			   System.out.println("Sent Messages:");
-               System.out.println("---------");
-		       for(; i<allMessages.size(); i++){
-
-				   System.out.print(i+1 + ". " + allMessages.get(i).get(1) + " " + allMessages.get(i).get(2) + " ");
-			       if(allMessages.get(i).get(3).equals("Delivered"))
-					   System.out.print("Unread");
-			       else
-					   System.out.print("Read");
-				   System.out.print("\n");
-		   	   }
-
+		   //pages are fetched once per (direction, sendTime, msgId) they start
+		   //at, so paging back and forth sends no query twice.  The first page
+		   //each way is asked for at once, so the first switch between received
+		   //and sent does not wait, and while a page is read the one after it
+		   //is fetched in the background.
+		   Map<String, Future<List<List<String>>>> pages = new HashMap<String, Future<List<List<String>>>>();
+		   Object[] first = pageStarts.get(0);
+		   MessagePage(esql, pages, query, userKey, first);
+		   MessagePage(esql, pages, squery, userKey, first);
+
+		   try{
+			   while(viewmessages){
+				   Object[] start = pageStarts.get(pageStarts.size() - 1);
+				   final List<Integer> msgIds = new ArrayList<Integer>();
+				   final List<String> sendTimes = new ArrayList<String>();
+				   boolean more = false;
+				   Object[] nextStart = null;
+
+				   Future<List<List<String>>> page = MessagePage(esql, pages, received ? query : squery, userKey, start);
+
+				   System.out.println((received ? "Received Messages" : "Sent Messages") + " (page " + pageStarts.size() + "):");
+	               System.out.println("---------");
+				   List<List<String>> rows = QueryExecutor.await(page);
+				   for(int r=0; r<rows.size(); r++){
+					   List<String> row = rows.get(r);
+					   if(msgIds.size() == PAGE_SIZE){
+						   more = true;
+						   break;
+					   }
+					   msgIds.add(Integer.parseInt(row.get(0)));
+					   sendTimes.add(row.get(2));
+					   System.out.print(msgIds.size() + ". " + row.get(1) + " " + row.get(2) + " ");
+				       if(row.get(3).equals("Delivered"))
+						   System.out.print("Unread");
+				       else
+						   System.out.print("Read");
+					   System.out.print("\n");
+				   }
+				   int i = msgIds.size();
+				   if(more){
+					   nextStart = new Object[]{sendTimes.get(i-1), msgIds.get(i-1)};
+					   MessagePage(esql, pages, received ? query : squery, userKey, nextStart);
+				   }
 
-               System.out.println(".........................");
-			   System.out.println( (i+1) + ". Go back");
-		       System.out.println("\n");
+	               System.out.println(".........................");
+				   System.out.println( (i+1) + (more ? ". Next page" : ". Next page (no more messages)"));
+				   System.out.println( (i+2) + ". Previous page");
+				   System.out.println( (i+3) + (received ? ". Show sent messages" : ". Show received messages"));
+				   System.out.println( (i+4) + ". Go back");
+			       System.out.println("\n");
 			   
-			   int choice = readChoice();
-			   if(choice == (i+1)){
-				   viewmessages = false;
-			   }
-			   else{//they have chosen to view a message, display it
+				   int choice = readChoice();
+				   if(choice == (i+1)){
+					   if(more){
+						   pageStarts.add(nextStart);
+					   }
+				   }
+				   else if(choice == (i+2)){
+					   if(pageStarts.size() > 1){
+						   pageStarts.remove(pageStarts.size() - 1);
+					   }
+				   }
+				   else if(choice == (i+3)){
+					   received = !received;
+					   pageStarts.subList(1, pageStarts.size()).clear();
+				   }
+				   else if(choice == (i+4)){
+					   viewmessages = false;
+				   }
+				   else{//they have chosen to view a message, display it
 
-				   DisplayMessage(esql,allMessages.get(choice-1).get(0));
+					   DisplayMessage(esql, String.valueOf(msgIds.get(choice-1)));
+					   //the message now shows as read, the page is read again
+					   pages.remove(PageKey(received ? query : squery, start));
+				   }
+			   }
+		   }finally{
+			   //leaving the view, whatever was fetched ahead is not needed
+			   for(Future<List<List<String>>> pending : pages.values()){
+				   pending.cancel(false);
 			   }
 		   }
 	   }catch(Exception e){
@@ -979,6 +1797,50 @@ public class ProfNetwork {
 	   }
    }//end
 
+   /*
+   * Returns the page of query starting at start, asking for it in the
+   * background unless it has been already.  One extra row is asked for to
+   * tell whether there is a next page.
+   *
+   * */
+   public static Future<List<List<String>>> MessagePage(ProfNetwork esql, Map<String, Future<List<List<String>>>> pages, String query, int userKey, Object[] start) throws SQLException {
+	   String key = PageKey(query, start);
+	   Future<List<List<String>>> page = pages.get(key);
+	   if(page == null){
+		   page = esql.executeQueryAsync(query, userKey, start[0], start[1], PAGE_SIZE + 1);
+		   pages.put(key, page);
+	   }
+	   return page;
+   }//end
+
+   private static String PageKey(String query, Object[] start){
+	   return (query.equals(INBOX_PAGE) ? "received " : "sent ") + start[0] + " " + start[1];
+   }//end
+
+   /*
+   * Prints one numbered line per message row and remembers its msgId, and
+   * its deleteStatus when deleteStatus is not null.  The rows are expected as
+   * msgId, other user, sendTime, status[, deleteStatus].
+   *
+   * */
+   public static ProfNetwork.RowHandler MessageLines(final List<Integer> msgIds, final List<Integer> deleteStatus){
+	   return new ProfNetwork.RowHandler(){
+		   public boolean row(ResultSet rs) throws SQLException {
+			   msgIds.add(rs.getInt(1));
+			   if(deleteStatus != null){
+				   deleteStatus.add(rs.getInt(5));
+			   }
+			   System.out.print(msgIds.size() + ". " + rs.getString(2) + " " + rs.getString(3) + " ");
+		       if(rs.getString(4).equals("Delivered"))
+				   System.out.print("Unread");
+		       else
+				   System.out.print("Read");
+			   System.out.print("\n");
+			   return true;
+		   }
+	   };
+   }//end
+
    /*
    * Allows the user to delete a message 
    *
@@ -986,46 +1848,27 @@ public class ProfNetwork {
    public static void DeleteMessages(ProfNetwork esql, String authorisedUser){
 	   try{
 		   boolean deletemessages = true;
-		   String query = String.format("SELECT msgId, senderId, sendTime, status, deleteStatus FROM MESSAGE WHERE receiverId='" +authorisedUser + "' AND (deleteStatus <> 2 AND deleteStatus <>3) AND (status <> 'Failed to Deliver' AND status <> 'Draft')");
-	       List<List<String> > delMessages = new ArrayList<List<String> >();
+		   int userKey = esql.requireUserKey(authorisedUser);
+		   String query = "SELECT m.msgId, u.userId, m.sendTime, m.status, m.deleteStatus FROM MESSAGE m JOIN USR u ON u.userKey = m.senderKey WHERE m.receiverKey = ? AND (m.deleteStatus <> 2 AND m.deleteStatus <>3) AND (m.status <> 'Failed to Deliver' AND m.status <> 'Draft')";
 
-		   String squery = String.format("SELECT msgId, receiverId, sendTime, status, deleteStatus FROM MESSAGE WHERE senderId='" +authorisedUser + "' AND (deleteStatus <> 2 AND deleteStatus <>3) AND (status <> 'Failed to Deliver' AND status <> 'Draft')");
-		   List<List<String> > sentMessages = new ArrayList<List<String> >();
+		   String squery = "SELECT m.msgId, u.userId, m.sendTime, m.status, m.deleteStatus FROM MESSAGE m JOIN USR u ON u.userKey = m.receiverKey WHERE m.senderKey = ? AND (m.deleteStatus <> 2 AND m.deleteStatus <>3) AND (m.status <> 'Failed to Deliver' AND m.status <> 'Draft')";
 
            System.out.print("\n");
 		   System.out.println("DELETE MESSAGE MENU:");
            System.out.println("---------");
 
 		   while(deletemessages){
-	           delMessages = esql.executeQueryAndReturnResult(query);
-			   sentMessages = esql.executeQueryAndReturnResult(squery);
-			   int i=0;
+			   List<Integer> msgIds = new ArrayList<Integer>();
+			   List<Integer> deleteStatus = new ArrayList<Integer>();
 			  
 			   System.out.println("Received Messages:");
                System.out.println("---------");
-
-		       for(; i<delMessages.size(); i++){
-				   System.out.print(i+1 + ". " +  delMessages.get(i).get(1) + " " + delMessages.get(i).get(2) + " ");
-				   
-			       if(delMessages.get(i).get(3).equals("Delivered"))
-					   System.out.print("Unread"); else
-					   System.out.print("Read");
-				   System.out.print("\n");
-		   	   }
-
-			   delMessages.addAll(sentMessages);
+			   esql.executeQueryForEach(query, MessageLines(msgIds, deleteStatus), userKey);
 
 			   System.out.println("Sent Messages:");
                System.out.println("---------");
-		       for(; i<delMessages.size(); i++){
-
-				   System.out.print(i+1 + ". " + delMessages.get(i).get(1) + " " + delMessages.get(i).get(2) + " ");
-			       if(delMessages.get(i).get(3).equals("Delivered"))
-					   System.out.print("Unread");
-			       else
-					   System.out.print("Read");
-				   System.out.print("\n");
-		   	   }
+			   esql.executeQueryForEach(squery, MessageLines(msgIds, deleteStatus), userKey);
+			   int i = msgIds.size();
 
                System.out.println(".........................");
 			   System.out.println( (i+1) + ". Go back");
@@ -1036,13 +1879,13 @@ public class ProfNetwork {
 				   deletemessages = false;
 			   }
 			   else{//delete the message
-				   if(delMessages.get(choice-1).get(4).equals("1") ){
-					   String nquery = String.format("UPDATE MESSAGE SET deleteStatus = '3' WHERE msgId = '" + delMessages.get(choice-1).get(0) + "'");
-					   esql.executeUpdate(nquery);
+				   if(deleteStatus.get(choice-1) == 1){
+					   String nquery = "UPDATE MESSAGE SET deleteStatus = 3 WHERE msgId = ?";
+					   esql.executeUpdate(nquery, msgIds.get(choice-1));
 				   }
 				   else{
-					   String nquery = String.format("UPDATE MESSAGE SET deleteStatus = '2' WHERE msgId = '" + delMessages.get(choice-1).get(0) + "'");
-					   esql.executeUpdate(nquery);
+					   String nquery = "UPDATE MESSAGE SET deleteStatus = 2 WHERE msgId = ?";
+					   esql.executeUpdate(nquery, msgIds.get(choice-1));
 				   }
 			   }//end delete message
 
@@ -1060,16 +1903,16 @@ public class ProfNetwork {
    public static void DisplayMessage(ProfNetwork esql, String msId){
 	   try{
 		   while(true){
-			   String query = String.format("SELECT senderId, sendTime, contents FROM MESSAGE WHERE msgId='" +msId +"'");
+			   String query = "SELECT u.userId, m.sendTime, m.contents FROM MESSAGE m JOIN USR u ON u.userKey = m.senderKey WHERE m.msgId = ?";
 	       	   List<List<String> > display = new ArrayList<List<String> >();
-	           display = esql.executeQueryAndReturnResult(query);
+	           display = esql.executeQueryAndReturnResult(query, Integer.parseInt(msId));
 
 		       System.out.println(display.get(0).get(0) + " " + display.get(0).get(1));
 		       System.out.println(display.get(0).get(2) );
 		       System.out.print("\n");
 		   
-		       query = String.format("UPDATE MESSAGE SET status = 'Read' WHERE msgId = '" + msId + "'");
-		       esql.executeUpdate(query);
+		       query = "UPDATE MESSAGE SET status = 'Read' WHERE msgId = ?";
+		       esql.executeUpdate(query, Integer.parseInt(msId));
 
 		       System.out.println("1. Return");
 		       if(readChoice() == 1){
@@ -1083,61 +1926,93 @@ public class ProfNetwork {
 	   }
    }//end
 
+   /*
+   * Shows how the user is connected to the owner of a profile they are
+   * looking at: the degree of separation, how many friends they have in
+   * common and a few of them.  Everything is read from the connection
+   * index, so no query is sent.
+   *
+   * */
+   public static void ConnectionSummary(ProfNetwork esql, String authorisedUser, String otherUser){
+	   try{
+		   if(authorisedUser.equals(otherUser)){
+			   return;
+		   }
+		   ConnectionIndex index = ConnectionGraph(esql);
+		   int me = index.id(authorisedUser);
+		   int other = index.id(otherUser);
+		   int[] sample = new int[MUTUAL_SAMPLE];
+		   int mutual = index.mutual(me, other, sample);
+
+		   String degree;
+		   if(index.connected(me, other))
+			   degree = "1st";
+		   else if(mutual > 0)
+			   degree = "2nd";
+		   else if(Reachability.distance(index, authorisedUser, otherUser, 3) == 3)
+			   degree = "3rd";
+		   else
+			   degree = "beyond 3rd";
+		   System.out.println("Connection: " + degree);
+
+		   StringBuilder names = new StringBuilder();
+		   for(int i=0; i<Math.min(mutual, sample.length); i++){
+			   names.append(i == 0 ? " (" : ", ").append(index.name(sample[i]));
+		   }
+		   if(names.length() > 0)
+			   names.append(mutual > sample.length ? ", ...)" : ")");
+		   System.out.println("Mutual connections: " + mutual + names);
+           System.out.println("---------");
+	   }catch(Exception e){
+		   System.err.println(e.getMessage());
+	   }
+   }//end
+
    /*
    * Displays the profile of the user.
-   * Displays user info, work and education experience. 
+   * Displays user info, work and education experience, read in one query.
    * */
    public static void DisplayProfile(ProfNetwork esql, String authorisedUser){
-
-	   String query = String.format("SELECT email, name, dateOfBirth FROM USR WHERE userId='" +authorisedUser + "'");
-	   List<List<String> > usrInfo = new ArrayList<List<String> >();
 	   try{
-		   usrInfo = esql.executeQueryAndReturnResult(query);
+		   Profile profile = esql.profiles().get(authorisedUser);
+		   if(profile == null){
+			   System.out.println("The user does not exist!");
+			   return;
+		   }
+
 		   System.out.println("\n");
-		   System.out.println(usrInfo.get(0).get(1) + "'s PROFILE:");
+		   System.out.println(profile.name + "'s PROFILE:");
            System.out.println("---------");
 
-		   if(usrInfo.get(0).get(1) != null)
-			   System.out.println("Name: " + usrInfo.get(0).get(1) + "");
-	   	   System.out.println("Email: " + usrInfo.get(0).get(0) + "");
-		   if(usrInfo.get(0).get(2) != null )
-			   System.out.println("Date of Birth: " + usrInfo.get(0).get(2) + "");
+		   if(profile.name != null)
+			   System.out.println("Name: " + profile.name + "");
+	   	   System.out.println("Email: " + profile.email + "");
+		   if(profile.dateOfBirth != null )
+			   System.out.println("Date of Birth: " + profile.dateOfBirth + "");
            System.out.println("---------");
-	   }catch(Exception e){
-		   System.err.println(e.getMessage());
-	   }
 
-	   query = String.format("SELECT company, role, location, startdate, enddate FROM WORK_EXPR WHERE userId='" + authorisedUser + "'");
-	   List<List<String> > workInfo = new ArrayList<List<String> >();
-	   try{
-		   workInfo = esql.executeQueryAndReturnResult(query);
-	       if(!workInfo.isEmpty()){
+	       if(!profile.work.isEmpty()){
 			   System.out.println("Work Experience: ");
-		       for(int i=0; i<workInfo.size(); i++){
-				   System.out.println("\nCompany: " + workInfo.get(i).get(0) + "");
-			       System.out.println("Role: " + workInfo.get(i).get(1) + "");
-			       System.out.println("Location: " + workInfo.get(i).get(2) +"");
-			       System.out.println("Start Date: " + workInfo.get(i).get(3) +"");
-			       System.out.println("End Date: " + workInfo.get(i).get(4) +"");
+		       for(int i=0; i<profile.work.size(); i++){
+				   Profile.Work work = profile.work.get(i);
+				   System.out.println("\nCompany: " + work.company + "");
+			       System.out.println("Role: " + work.role + "");
+			       System.out.println("Location: " + work.location +"");
+			       System.out.println("Start Date: " + work.startDate +"");
+			       System.out.println("End Date: " + work.endDate +"");
 			   }
            	   System.out.println("---------");
-	      }
-	   }catch(Exception e){
-		   System.err.println(e.getMessage());
-	   }
+	       }
 
-	   query = String.format("SELECT instituitionName, major, degree, startdate, enddate FROM EDUCATIONAL_DETAILS WHERE userId='" + authorisedUser + "'");
-	   List<List<String> > eduInfo = new ArrayList<List<String> >();
-	   try{
-		   eduInfo = esql.executeQueryAndReturnResult(query);
-	       if(!eduInfo.isEmpty()){
+	       if(!profile.education.isEmpty()){
 			   System.out.println("Education Experience: ");
-			   for(int i=0; i<eduInfo.size(); i++){
-				   System.out.println("\nInstitution Name: " + eduInfo.get(i).get(0) + "");
-				   System.out.println("Major: " + eduInfo.get(i).get(1) + "");
-				   System.out.println("Degree: " + eduInfo.get(i).get(2) + "");
-				   System.out.println("Start Date: " + eduInfo.get(i).get(3) + "");
-				   System.out.println("End Date: " + eduInfo.get(i).get(4) + "");
+			   for(int i=0; i<profile.education.size(); i++){
+				   Profile.Education edu = profile.education.get(i);
+				   System.out.println("\nInstitution Name: " + edu.institution + "");
+				   System.out.println("Major: " + edu.major + "");
+				   System.out.println("Degree: " + edu.degree + "");
+				   System.out.println("Start Date: " + edu.startDate + "");
+				   System.out.println("End Date: " + edu.endDate + "");
 			   }
            	   System.out.println("---------");
 		   }
@@ -0,0 +1,273 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Micro benchmarks for the query and graph paths ProfNetwork spends its
+ * time in, run against a database seeded from the data directory with
+ * BulkLoader.
+ *
+ * Every case is run for a number of warmup operations that are not timed,
+ * so the JIT and the statement caches settle, and then for the measured
+ * operations, each timed on its own.  Inputs are users drawn from the
+ * database with a fixed seed, so two runs against the same data do the
+ * same work and their numbers can be compared before and after a change.
+ *
+ * The same cases can be run under JMH, which forks, warms up and reports
+ * error bars properly, with mvn -P jmh package as described in jmh.sh.
+ *
+ * Usage: java ProfNetworkBench <dbname> <port> <user> [operations] [case]
+ */
+public class ProfNetworkBench {
+
+   /**
+    * One benchmarked operation, i counts the operations run so far
+    */
+   static abstract class Case {
+      final String name;
+
+      Case(String name){
+         this.name = name;
+      }
+
+      abstract void run(int i) throws Exception;
+   }//end Case
+
+   // results are kept here so no case can be optimized away
+   static long sink = 0;
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java ProfNetworkBench <dbname> <port> <user> [operations] [case]");
+         return;
+      }//end if
+      int operations = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+      String only = args.length > 4 ? args[4] : null;
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      final ProfNetwork esql = new ProfNetwork (args[0], args[1], args[2], "");
+      try{
+         List<Case> cases = cases(esql);
+         if(cases.isEmpty()){
+            System.err.println("No users, load the database with BulkLoader first");
+            return;
+         }
+
+         System.out.println(String.format("%-28s %8s %10s %10s %10s %10s %10s",
+               "case", "ops", "ops/s", "mean us", "p50 us", "p99 us", "max us"));
+         for(int c=0; c<cases.size(); c++){
+            Case bench = cases.get(c);
+            if(only != null && !bench.name.startsWith(only)){
+               continue;
+            }
+            for(int i=0; i<operations / 10; i++){
+               bench.run(i);
+            }
+            report(bench.name, measure(bench, operations));
+         }
+      }finally{
+         esql.cleanup();
+      }
+   }//end main
+
+   /*
+   * Builds every case over users drawn from the database, or none when the
+   * database has no users
+   *
+   * */
+   static List<Case> cases(final ProfNetwork esql) throws SQLException {
+      List<Case> cases = new ArrayList<Case>();
+      Random random = new Random(166);
+      final String[] users = sample(esql,
+         "SELECT userId FROM USR ORDER BY userId", random, 256);
+      final String[] connected = sample(esql,
+         "SELECT DISTINCT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.userKey " +
+         "WHERE c.status = 'Accept' ORDER BY 1", random, 256);
+      final String[] receivers = sample(esql,
+         "SELECT DISTINCT u.userId FROM MESSAGE m JOIN USR u ON u.userKey = m.receiverKey ORDER BY 1", random, 256);
+      if(users.length == 0){
+         return cases;
+      }
+      final String[] talkers = receivers.length > 0 ? receivers : users;
+      final String[] friendly = connected.length > 0 ? connected : users;
+      // capacity 0 keeps nothing, so every get goes to the database
+      final FriendSetCache uncached = new FriendSetCache(esql, 0);
+
+      cases.add(new Case("executeQueryAndReturnResult"){
+         void run(int i) throws Exception {
+            sink += esql.executeQueryAndReturnResult(
+               "SELECT * FROM USR WHERE userId >= ? ORDER BY userId LIMIT 100", users[i % users.length]).size();
+         }
+      });
+      cases.add(new Case("executeQueryForEach"){
+         void run(int i) throws Exception {
+            sink += esql.executeQueryForEach(
+               "SELECT * FROM USR WHERE userId >= ? ORDER BY userId LIMIT 100", new ProfNetwork.RowHandler(){
+                  public boolean row(ResultSet rs) throws SQLException {
+                     for(int c=1; c<=rs.getMetaData().getColumnCount(); c++){
+                        String value = rs.getString(c);
+                        sink += value == null ? 0 : value.length();
+                     }
+                     return true;
+                  }
+               }, users[i % users.length]);
+         }
+      });
+      cases.add(new Case("getFriendsList uncached"){
+         void run(int i) throws Exception {
+            sink += uncached.get(friendly[i % friendly.length]).size();
+         }
+      });
+      cases.add(new Case("getFriendsList"){
+         void run(int i) throws Exception {
+            sink += ProfNetwork.getFriendsList(esql, friendly[i % friendly.length]).size();
+         }
+      });
+      cases.add(new Case("ThreeLevels"){
+         void run(int i) throws Exception {
+            sink += ProfNetwork.ThreeLevels(esql, friendly[i % friendly.length],
+                                             friendly[(i * 31 + 7) % friendly.length]) ? 1 : 0;
+         }
+      });
+      cases.add(new Case("Profile.load"){
+         void run(int i) throws Exception {
+            Profile profile = Profile.load(esql, users[i % users.length]);
+            sink += profile == null ? 0 : profile.work.size() + profile.education.size();
+         }
+      });
+      cases.add(new Case("DisplayProfile data"){
+         void run(int i) throws Exception {
+            Profile profile = esql.profiles().get(users[i % users.length]);
+            sink += profile == null ? 0 : profile.work.size() + profile.education.size();
+         }
+      });
+      cases.add(new Case("ShowAllMessages page"){
+         void run(int i) throws Exception {
+            final List<String> rows = new ArrayList<String>();
+            esql.executeQueryForEach(ProfNetwork.INBOX_PAGE, new ProfNetwork.RowHandler(){
+               public boolean row(ResultSet rs) throws SQLException {
+                  rows.add(rs.getString(2) + " " + rs.getString(3) + " " + rs.getString(4));
+                  return true;
+               }
+            }, esql.userKey(talkers[i % talkers.length]), "infinity", Integer.MAX_VALUE, ProfNetwork.PAGE_SIZE + 1);
+            sink += rows.size();
+         }
+      });
+      cases.add(new Case("PeopleYouMayKnow"){
+         void run(int i) throws Exception {
+            sink += Recommendations.suggest(esql, friendly[i % friendly.length], ProfNetwork.SUGGESTIONS).size();
+         }
+      });
+      cases.add(new Case("mutual connections"){
+         int[] sample = new int[ProfNetwork.MUTUAL_SAMPLE];
+         void run(int i) throws Exception {
+            ConnectionIndex index = ProfNetwork.ConnectionGraph(esql);
+            sink += index.mutual(index.id(friendly[i % friendly.length]),
+                                 index.id(friendly[(i * 31 + 7) % friendly.length]), sample);
+         }
+      });
+      cases.add(new Case("inbox and sent pages"){
+         void run(int i) throws Exception {
+            int key = esql.userKey(talkers[i % talkers.length]);
+            sink += esql.executeQueryAndReturnResult(ProfNetwork.INBOX_PAGE, key, "infinity", Integer.MAX_VALUE, ProfNetwork.PAGE_SIZE + 1).size();
+            sink += esql.executeQueryAndReturnResult(ProfNetwork.SENT_PAGE, key, "infinity", Integer.MAX_VALUE, ProfNetwork.PAGE_SIZE + 1).size();
+         }
+      });
+      cases.add(new Case("inbox and sent pages async"){
+         void run(int i) throws Exception {
+            int key = esql.userKey(talkers[i % talkers.length]);
+            Future<List<List<String>>> inbox = esql.executeQueryAsync(ProfNetwork.INBOX_PAGE, key, "infinity", Integer.MAX_VALUE, ProfNetwork.PAGE_SIZE + 1);
+            Future<List<List<String>>> sent = esql.executeQueryAsync(ProfNetwork.SENT_PAGE, key, "infinity", Integer.MAX_VALUE, ProfNetwork.PAGE_SIZE + 1);
+            sink += QueryExecutor.await(inbox).size() + QueryExecutor.await(sent).size();
+         }
+      });
+      cases.add(new Case("ThreeLevels indexed"){
+         void run(int i) throws Exception {
+            if(ProfNetwork.graph == null){
+               ProfNetwork.graph = ConnectionIndex.load(esql);
+            }
+            sink += ProfNetwork.ThreeLevels(esql, friendly[i % friendly.length],
+                                             friendly[(i * 31 + 7) % friendly.length]) ? 1 : 0;
+         }
+      });
+      return cases;
+   }//end cases
+
+   /*
+   * Returns every case as a Callable that runs its next operation and
+   * returns the sink, keyed by case name.  This is how the JMH harness in
+   * jmh/ reaches the cases: JMH needs its benchmarks in a package, and a
+   * class in a package cannot name ones in the default package except by
+   * reflection.
+   *
+   * */
+   public static Map<String, Callable<Long>> callables(ProfNetwork esql) throws SQLException {
+      Map<String, Callable<Long>> callables = new LinkedHashMap<String, Callable<Long>>();
+      List<Case> cases = cases(esql);
+      for(int c=0; c<cases.size(); c++){
+         final Case bench = cases.get(c);
+         callables.put(bench.name, new Callable<Long>(){
+            int i = 0;
+            public Long call() throws Exception {
+               bench.run(i++);
+               return sink;
+            }
+         });
+      }
+      return callables;
+   }//end callables
+
+   /*
+   * Runs a case and returns the time of every operation in nanoseconds
+   *
+   * */
+   static long[] measure(Case bench, int operations) throws Exception {
+      long[] nanos = new long[operations];
+      for(int i=0; i<operations; i++){
+         long start = System.nanoTime();
+         bench.run(i);
+         nanos[i] = System.nanoTime() - start;
+      }
+      return nanos;
+   }//end measure
+
+   static void report(String name, long[] nanos){
+      long total = 0;
+      for(int i=0; i<nanos.length; i++){
+         total += nanos[i];
+      }
+      Arrays.sort(nanos);
+      System.out.println(String.format("%-28s %8d %10.0f %10.1f %10.1f %10.1f %10.1f",
+            name, nanos.length, nanos.length / (total / 1e9), total / 1e3 / nanos.length,
+            percentile(nanos, 0.50) / 1e3, percentile(nanos, 0.99) / 1e3, nanos[nanos.length - 1] / 1e3));
+   }//end report
+
+   static long percentile(long[] sorted, double p){
+      int i = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+   }//end percentile
+
+   /*
+   * Draws up to n values of the first column of a query, with repeats
+   *
+   * */
+   static String[] sample(ProfNetwork esql, String query, Random random, int n) throws SQLException {
+      List<List<String>> rows = esql.executeQueryAndReturnResult(query);
+      if(rows.isEmpty()){
+         return new String[0];
+      }
+      String[] picked = new String[n];
+      for(int i=0; i<n; i++){
+         picked[i] = rows.get(random.nextInt(rows.size())).get(0);
+      }
+      return picked;
+   }//end sample
+
+}//end ProfNetworkBench
@@ -0,0 +1,116 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the ProfNetwork menus to many clients at once over a local TCP
+ * socket.  Every client gets its own thread running the same menus as the
+ * console program, and all of them share one ProfNetwork and therefore one
+ * connection pool.  Any line based client works, e.g. nc localhost 6166.
+ *
+ * Usage: java ProfNetworkServer <dbname> <port> <user> <listen port>
+ */
+public class ProfNetworkServer {
+
+   public static void main(String[] args) {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ProfNetworkServer.class.getName () +
+            " <dbname> <port> <user> <listen port>");
+         return;
+      }//end if
+
+      ProfNetwork esql = null;
+      ServerSocket server = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         ProfNetwork.LoadConnectionIndex(esql);
+         Metrics.export();
+
+         SessionConsole.install();
+         server = new ServerSocket(Integer.parseInt(args[3]), 128, InetAddress.getLoopbackAddress());
+         System.out.println("Listening on " + server.getLocalSocketAddress());
+
+         ExecutorService sessions = Executors.newCachedThreadPool(new ThreadFactory(){
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r){
+               Thread t = new Thread(r, "session-" + count.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         while(true){
+            Socket client = server.accept();
+            sessions.execute(new Session(esql, client));
+         }
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         try{
+            if(server != null) {
+               server.close();
+            }//end if
+         }catch (IOException e) {
+            // ignored.
+         }//end try
+         if(esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+   /**
+    * One connected client, running the menus until it exits or hangs up.
+    */
+   static class Session implements Runnable {
+
+      private final ProfNetwork esql;
+      private final Socket client;
+
+      Session(ProfNetwork esql, Socket client){
+         this.esql = esql;
+         this.client = client;
+      }//end Session
+
+      public void run(){
+         try{
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            SessionConsole.attach(in, out);
+            try{
+               ProfNetwork.Greeting();
+               ProfNetwork.RunMenus(esql);
+               System.out.println("Bye !");
+               out.flush();
+            }catch(SessionConsole.SessionClosed e){
+               // client hung up in the middle of a menu.
+            }finally{
+               SessionConsole.detach();
+            }
+         }catch(IOException e){
+            // the client is gone, nothing left to tell it.
+         }finally{
+            try{
+               client.close();
+            }catch(IOException e){
+               // ignored.
+            }
+         }
+      }//end run
+
+   }//end Session
+
+}//end ProfNetworkServer
@@ -0,0 +1,112 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A user's profile: their USR row with every WORK_EXPR and
+ * EDUCATIONAL_DETAILS row, read together in a single query.
+ */
+public class Profile {
+
+   /**
+    * One row of WORK_EXPR
+    */
+   public static class Work {
+      public final String company;
+      public final String role;
+      public final String location;
+      public final Date startDate;
+      public final Date endDate;
+
+      Work(String company, String role, String location, Date startDate, Date endDate){
+         this.company = company;
+         this.role = role;
+         this.location = location;
+         this.startDate = startDate;
+         this.endDate = endDate;
+      }
+   }//end Work
+
+   /**
+    * One row of EDUCATIONAL_DETAILS
+    */
+   public static class Education {
+      public final String institution;
+      public final String major;
+      public final String degree;
+      public final Date startDate;
+      public final Date endDate;
+
+      Education(String institution, String major, String degree, Date startDate, Date endDate){
+         this.institution = institution;
+         this.major = major;
+         this.degree = degree;
+         this.startDate = startDate;
+         this.endDate = endDate;
+      }
+   }//end Education
+
+   // the three tables line up as kind, three text columns and two dates,
+   // each joined to the userKey the userId is resolved to in the query
+   private static final String QUERY =
+      "WITH k AS (SELECT userKey FROM USR WHERE userId = ?) " +
+      "SELECT 0, u.email, u.name, CAST(NULL AS varchar), u.dateOfBirth, CAST(NULL AS date) " +
+      "FROM USR u JOIN k ON u.userKey = k.userKey " +
+      "UNION ALL " +
+      "SELECT 1, w.company, w.role, w.location, w.startDate, w.endDate " +
+      "FROM WORK_EXPR w JOIN k ON w.userKey = k.userKey " +
+      "UNION ALL " +
+      "SELECT 2, e.instituitionName, e.major, e.degree, e.startdate, e.enddate " +
+      "FROM EDUCATIONAL_DETAILS e JOIN k ON e.userKey = k.userKey " +
+      "ORDER BY 1";
+
+   public final String userId;
+   public String email;
+   public String name;
+   public Date dateOfBirth;
+   public final List<Work> work = new ArrayList<Work>();
+   public final List<Education> education = new ArrayList<Education>();
+
+   private boolean found = false;
+
+   Profile(String userId){
+      this.userId = userId;
+   }//end Profile
+
+   /*
+   * Reads the whole profile of a user in one round trip, or returns null if
+   * there is no such user
+   *
+   * */
+   public static Profile load(ProfNetwork esql, String userId) throws SQLException {
+      Profile profile = new Profile(userId);
+      List<List<String>> rows = esql.executeQueryAndReturnResult(QUERY, userId);
+      for(int i=0; i<rows.size(); i++){
+         List<String> row = rows.get(i);
+         switch(Integer.parseInt(row.get(0))){
+            case 0:
+               profile.found = true;
+               profile.email = row.get(1);
+               profile.name = row.get(2);
+               profile.dateOfBirth = date(row.get(4));
+               break;
+            case 1:
+               profile.work.add(new Work(row.get(1), row.get(2), row.get(3),
+                                         date(row.get(4)), date(row.get(5))));
+               break;
+            case 2:
+               profile.education.add(new Education(row.get(1), row.get(2), row.get(3),
+                                                   date(row.get(4)), date(row.get(5))));
+               break;
+         }
+      }
+      return profile.found ? profile : null;
+   }//end load
+
+   // dates come back as yyyy-mm-dd text
+   private static Date date(String value){
+      return value == null ? null : Date.valueOf(value);
+   }//end date
+
+}//end Profile
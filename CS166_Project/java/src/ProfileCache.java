@@ -0,0 +1,162 @@
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-through cache of profiles in front of Profile.load.
+ *
+ * Entries are kept in least recently used order and the cache is bounded by
+ * the estimated size of the profiles it holds rather than by their count,
+ * so a few users with long work and education histories cannot crowd out
+ * everyone else.  An entry older than ttlMillis is loaded again, and any
+ * change to a user's profile must call invalidate() for that user.
+ *
+ * Hits, misses, evictions and expirations are counted so the capacity and
+ * the time to live can be tuned.
+ */
+public class ProfileCache {
+
+   private static class Entry {
+      final Profile profile;
+      final long weight;
+      final long loadedAt;
+
+      Entry(Profile profile, long weight, long loadedAt){
+         this.profile = profile;
+         this.weight = weight;
+         this.loadedAt = loadedAt;
+      }
+   }//end Entry
+
+   private final ProfNetwork esql;
+   private final long maxWeight;
+   private final long ttlMillis;
+
+   // guarded by this
+   private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+   private long weight = 0;
+   // bumped by every invalidate, a load that raced with one is not cached
+   private long version = 0;
+
+   private long hits = 0;
+   private long misses = 0;
+   private long evictions = 0;
+   private long expirations = 0;
+
+   public ProfileCache(ProfNetwork esql, long maxWeight, long ttlMillis){
+      this.esql = esql;
+      this.maxWeight = maxWeight;
+      this.ttlMillis = ttlMillis;
+   }//end ProfileCache
+
+   /*
+   * Returns the profile of a user, from the cache when it is there and
+   * fresh, or null if there is no such user
+   *
+   * */
+   public Profile get(String userId) throws SQLException {
+      long loadVersion;
+      synchronized(this){
+         Entry entry = entries.get(userId);
+         if(entry != null){
+            if(System.currentTimeMillis() - entry.loadedAt < ttlMillis){
+               hits++;
+               return entry.profile;
+            }
+            remove(userId);
+            expirations++;
+         }
+         misses++;
+         loadVersion = version;
+      }
+
+      Profile profile = Profile.load(esql, userId);
+      if(profile != null){
+         synchronized(this){
+            if(loadVersion == version){
+               put(userId, profile);
+            }
+         }
+      }
+      return profile;
+   }//end get
+
+   /*
+   * Drops a user's profile, called after it has been changed
+   *
+   * */
+   public synchronized void invalidate(String userId){
+      version++;
+      remove(userId);
+   }//end invalidate
+
+   public synchronized long hits(){
+      return hits;
+   }//end hits
+
+   public synchronized long misses(){
+      return misses;
+   }//end misses
+
+   public synchronized long evictions(){
+      return evictions;
+   }//end evictions
+
+   public synchronized long expirations(){
+      return expirations;
+   }//end expirations
+
+   public synchronized String toString(){
+      long lookups = hits + misses;
+      return String.format("profiles=%d weight=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d",
+            entries.size(), weight, maxWeight, hits, misses,
+            lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions, expirations);
+   }//end toString
+
+   private void put(String userId, Profile profile){
+      long size = estimate(profile);
+      if(size > maxWeight){
+         return;
+      }
+      remove(userId);
+      entries.put(userId, new Entry(profile, size, System.currentTimeMillis()));
+      weight += size;
+      Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+      while(weight > maxWeight && eldest.hasNext()){
+         weight -= eldest.next().getValue().weight;
+         eldest.remove();
+         evictions++;
+      }
+   }//end put
+
+   private void remove(String userId){
+      Entry entry = entries.remove(userId);
+      if(entry != null){
+         weight -= entry.weight;
+      }
+   }//end remove
+
+   /*
+   * Rough size of a profile in bytes: two per character plus a fixed
+   * overhead per object
+   *
+   * */
+   static long estimate(Profile profile){
+      long size = 64 + chars(profile.userId) + chars(profile.email) + chars(profile.name);
+      for(int i=0; i<profile.work.size(); i++){
+         Profile.Work work = profile.work.get(i);
+         size += 64 + chars(work.company) + chars(work.role) + chars(work.location);
+      }
+      for(int i=0; i<profile.education.size(); i++){
+         Profile.Education edu = profile.education.get(i);
+         size += 64 + chars(edu.institution) + chars(edu.major) + chars(edu.degree);
+      }
+      return size;
+   }//end estimate
+
+   private static long chars(String s){
+      return s == null ? 0 : 40 + 2L * s.length();
+   }//end chars
+
+}//end ProfileCache
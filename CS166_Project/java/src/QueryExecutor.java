@@ -0,0 +1,103 @@
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs queries in the background so a screen can issue the ones it needs
+ * at the same time and wait for all of them, taking as long as the slowest
+ * instead of as long as all of them added up.
+ *
+ * Each query still goes through ProfNetwork and takes its own connection
+ * from the pool, so no more run at once than there are pooled connections
+ * and the metrics see them like any other statement.  The threads are
+ * daemons and are stopped by close().
+ *
+ * The usual shape is
+ *
+ *    Future<List<List<String>>> a = queries.query(...);
+ *    Future<List<List<String>>> b = queries.query(...);
+ *    List<List<String>> rowsA = QueryExecutor.await(a);
+ *    List<List<String>> rowsB = QueryExecutor.await(b);
+ */
+public class QueryExecutor {
+
+   private final ProfNetwork esql;
+   private final ExecutorService workers;
+
+   public QueryExecutor(ProfNetwork esql, int threads){
+      this.esql = esql;
+      final AtomicInteger count = new AtomicInteger();
+      this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+         public Thread newThread(Runnable task){
+            Thread thread = new Thread(task, "query-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }//end QueryExecutor
+
+   /*
+   * Runs any piece of data access in the background
+   *
+   * */
+   public <T> Future<T> submit(Callable<T> task){
+      return workers.submit(task);
+   }//end submit
+
+   /*
+   * Runs executeQueryAndReturnResult in the background
+   *
+   * */
+   public Future<List<List<String>>> query(final String query, final Object... params){
+      return submit(new Callable<List<List<String>>>(){
+         public List<List<String>> call() throws SQLException {
+            return esql.executeQueryAndReturnResult(query, params);
+         }
+      });
+   }//end query
+
+   /*
+   * Waits for a result, rethrowing what the task failed with as an
+   * SQLException the way the synchronous calls would have
+   *
+   * */
+   public static <T> T await(Future<T> result) throws SQLException {
+      try{
+         return result.get();
+      }catch(InterruptedException e){
+         result.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a query");
+      }catch(ExecutionException e){
+         Throwable cause = e.getCause();
+         if(cause instanceof SQLException){
+            throw (SQLException) cause;
+         }
+         if(cause instanceof RuntimeException){
+            throw (RuntimeException) cause;
+         }
+         throw new SQLException(String.valueOf(cause));
+      }
+   }//end await
+
+   /*
+   * Stops taking queries and waits briefly for the running ones
+   *
+   * */
+   public void close(){
+      workers.shutdown();
+      try{
+         workers.awaitTermination(5, TimeUnit.SECONDS);
+      }catch(InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+   }//end close
+
+}//end QueryExecutor
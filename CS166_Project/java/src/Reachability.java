@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Degree-of-separation search over the accepted-connection graph.
+ *
+ * The search runs breadth first from both ends at once, always growing the
+ * smaller frontier, and stops as soon as the two sides meet or the combined
+ * depth reaches the limit.  Each user's friends are asked for at most once.
+ */
+public class Reachability {
+
+   /*
+   * Source of the accepted friends of a user.
+   *
+   * */
+   public interface Neighbors {
+      List<String> of(String userId);
+   }//end Neighbors
+
+   /*
+   * Returns the number of hops between from and to, or -1 if they are
+   * further apart than maxDepth.
+   *
+   * */
+   public static int distance(Neighbors graph, String from, String to, int maxDepth){
+      if(from.equals(to)){
+         return 0;
+      }
+
+      Map<String, Integer> seenFrom = new HashMap<String, Integer>();
+      Map<String, Integer> seenTo = new HashMap<String, Integer>();
+      seenFrom.put(from, 0);
+      seenTo.put(to, 0);
+
+      List<String> frontierFrom = new ArrayList<String>();
+      List<String> frontierTo = new ArrayList<String>();
+      frontierFrom.add(from);
+      frontierTo.add(to);
+      int depthFrom = 0;
+      int depthTo = 0;
+
+      while(!frontierFrom.isEmpty() && !frontierTo.isEmpty() && depthFrom + depthTo < maxDepth){
+         boolean forward = frontierFrom.size() <= frontierTo.size();
+         List<String> frontier = forward ? frontierFrom : frontierTo;
+         Map<String, Integer> own = forward ? seenFrom : seenTo;
+         Map<String, Integer> other = forward ? seenTo : seenFrom;
+         int depth = (forward ? depthFrom : depthTo) + 1;
+
+         //finish the whole level so the shortest meeting point wins
+         int best = -1;
+         List<String> next = new ArrayList<String>();
+         for(int i=0; i<frontier.size(); i++){
+            List<String> friends = graph.of(frontier.get(i));
+            if(friends == null){
+               continue;
+            }
+            for(int j=0; j<friends.size(); j++){
+               String friend = friends.get(j);
+               Integer met = other.get(friend);
+               if(met != null){
+                  int hops = depth + met;
+                  if(best < 0 || hops < best){
+                     best = hops;
+                  }
+               }
+               if(!own.containsKey(friend)){
+                  own.put(friend, depth);
+                  next.add(friend);
+               }
+            }
+         }
+         if(best >= 0){
+            return best <= maxDepth ? best : -1;
+         }
+
+         if(forward){
+            frontierFrom = next;
+            depthFrom = depth;
+         }
+         else{
+            frontierTo = next;
+            depthTo = depth;
+         }
+      }//end while
+      return -1;
+   }//end distance
+
+   // per thread marks of the users each side has seen, indexed by id and
+   // holding their depth plus one.  A search clears the entries it set, so
+   // the arrays are only allocated when the graph outgrows them.
+   private static final ThreadLocal<int[][]> marks = new ThreadLocal<int[][]>(){
+      protected int[][] initialValue(){
+         return new int[][]{new int[0], new int[0]};
+      }
+   };
+
+   /*
+   * Same search over the in memory connection index, walking int ids
+   * instead of asking for friends lists.  The index is held for the whole
+   * walk so it sees one version of the graph.
+   *
+   * */
+   public static int distance(ConnectionIndex graph, String from, String to, int maxDepth){
+      if(from.equals(to)){
+         return 0;
+      }
+      synchronized(graph){
+         int source = graph.id(from);
+         int target = graph.id(to);
+         if(source < 0 || target < 0){
+            return -1;
+         }
+
+         int[][] seen = marks.get();
+         if(seen[0].length < graph.size()){
+            seen[0] = new int[graph.size()];
+            seen[1] = new int[graph.size()];
+         }
+         int[] seenFrom = seen[0];
+         int[] seenTo = seen[1];
+         int[] touched = new int[64];
+         touched[0] = source;
+         touched[1] = target;
+         int touchedSize = 2;
+         try{
+            seenFrom[source] = 1;
+            seenTo[target] = 1;
+
+            int[] frontierFrom = {source};
+            int[] frontierTo = {target};
+            int sizeFrom = 1;
+            int sizeTo = 1;
+            int depthFrom = 0;
+            int depthTo = 0;
+
+            while(sizeFrom > 0 && sizeTo > 0 && depthFrom + depthTo < maxDepth){
+               boolean forward = sizeFrom <= sizeTo;
+               int[] frontier = forward ? frontierFrom : frontierTo;
+               int size = forward ? sizeFrom : sizeTo;
+               int[] own = forward ? seenFrom : seenTo;
+               int[] other = forward ? seenTo : seenFrom;
+               int depth = (forward ? depthFrom : depthTo) + 1;
+
+               //finish the whole level so the shortest meeting point wins
+               int best = -1;
+               int[] next = new int[16];
+               int nextSize = 0;
+               for(int i=0; i<size; i++){
+                  int degree = graph.degree(frontier[i]);
+                  for(int j=0; j<degree; j++){
+                     int friend = graph.neighbor(frontier[i], j);
+                     if(other[friend] > 0){
+                        int hops = depth + other[friend] - 1;
+                        if(best < 0 || hops < best){
+                           best = hops;
+                        }
+                     }
+                     if(own[friend] == 0){
+                        own[friend] = depth + 1;
+                        if(nextSize == next.length){
+                           next = Arrays.copyOf(next, nextSize * 2);
+                        }
+                        next[nextSize++] = friend;
+                        if(touchedSize == touched.length){
+                           touched = Arrays.copyOf(touched, touchedSize * 2);
+                        }
+                        touched[touchedSize++] = friend;
+                     }
+                  }
+               }
+               if(best >= 0){
+                  return best <= maxDepth ? best : -1;
+               }
+
+               if(forward){
+                  frontierFrom = next;
+                  sizeFrom = nextSize;
+                  depthFrom = depth;
+               }
+               else{
+                  frontierTo = next;
+                  sizeTo = nextSize;
+                  depthTo = depth;
+               }
+            }//end while
+            return -1;
+         }finally{
+            for(int i=0; i<touchedSize; i++){
+               seenFrom[touched[i]] = 0;
+               seenTo[touched[i]] = 0;
+            }
+         }
+      }
+   }//end distance
+
+   /*
+   * Checks if to is within maxDepth hops of from
+   *
+   * */
+   public static boolean within(Neighbors graph, String from, String to, int maxDepth){
+      return distance(graph, from, to, maxDepth) >= 0;
+   }//end within
+
+}//end Reachability
@@ -0,0 +1,171 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the old nested three level check with the bidirectional search
+ * on a connection graph read from Connection.csv.  The friends lookups are
+ * counted because each one costs two queries against the database.
+ *
+ * With --db the same pairs are run against a loaded database instead, once
+ * through the friends lists and once through the recursive query, so the
+ * two ProfNetwork reachability modes can be compared.
+ *
+ * Usage: java ReachabilityBench <path to Connection.csv> [pairs]
+ *        java ReachabilityBench --db <dbname> <port> <user> [pairs]
+ */
+public class ReachabilityBench {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1) {
+         System.err.println("Usage: java ReachabilityBench <Connection.csv> [pairs]");
+         System.err.println("       java ReachabilityBench --db <dbname> <port> <user> [pairs]");
+         return;
+      }//end if
+      if (args[0].equals("--db")) {
+         compareModes(args[1], args[2], args[3], args.length > 4 ? Integer.parseInt(args[4]) : 200);
+         return;
+      }//end if
+      int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+      final Map<String, List<String>> graph = loadAccepted(args[0]);
+      List<String> users = new ArrayList<String>(graph.keySet());
+      System.out.println("Loaded " + users.size() + " connected users");
+
+      Random random = new Random(166);
+      String[][] samples = new String[pairs][2];
+      for(int i=0; i<pairs; i++){
+         samples[i][0] = users.get(random.nextInt(users.size()));
+         samples[i][1] = users.get(random.nextInt(users.size()));
+      }
+
+      final long[] lookups = new long[1];
+      Reachability.Neighbors counted = new Reachability.Neighbors(){
+         public List<String> of(String userId){
+            lookups[0]++;
+            List<String> friends = graph.get(userId);
+            return friends == null ? new ArrayList<String>() : friends;
+         }
+      };
+
+      //old nested loops
+      lookups[0] = 0;
+      int found = 0;
+      long start = System.nanoTime();
+      for(int i=0; i<pairs; i++){
+         if(nestedThreeLevels(counted, samples[i][0], samples[i][1])) found++;
+      }
+      long nested = System.nanoTime() - start;
+      long nestedLookups = lookups[0];
+      report("nested", pairs, found, nested, nestedLookups);
+
+      //bidirectional search
+      lookups[0] = 0;
+      found = 0;
+      start = System.nanoTime();
+      for(int i=0; i<pairs; i++){
+         if(Reachability.within(counted, samples[i][0], samples[i][1], 3)) found++;
+      }
+      long bidirectional = System.nanoTime() - start;
+      report("bidirectional", pairs, found, bidirectional, lookups[0]);
+   }//end main
+
+   /*
+   * Times the java and sql reachability modes on the same pairs of a loaded database
+   *
+   * */
+   static void compareModes(String dbname, String dbport, String user, int pairs) throws Exception {
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      ProfNetwork esql = new ProfNetwork (dbname, dbport, user, "");
+      try{
+         List<List<String>> rows = esql.executeQueryAndReturnResult(
+            "SELECT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.userKey WHERE c.status = 'Accept'");
+         Random random = new Random(166);
+         String[][] samples = new String[pairs][2];
+         for(int i=0; i<pairs; i++){
+            samples[i][0] = rows.get(random.nextInt(rows.size())).get(0);
+            samples[i][1] = rows.get(random.nextInt(rows.size())).get(0);
+         }
+
+         String[] modes = {"java", "sql"};
+         for(int m=0; m<modes.length; m++){
+            ProfNetwork.reachabilityMode = modes[m];
+            int found = 0;
+            long start = System.nanoTime();
+            for(int i=0; i<pairs; i++){
+               if(ProfNetwork.ThreeLevels(esql, samples[i][0], samples[i][1])) found++;
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%-5s pairs=%d reachable=%d total=%.1fms per-pair=%.3fms",
+                  modes[m], pairs, found, elapsed / 1e6, elapsed / 1e6 / pairs));
+         }
+      }finally{
+         esql.cleanup();
+      }
+   }//end compareModes
+
+   /*
+   * Reads the accepted edges of Connection.csv into an undirected adjacency map
+   *
+   * */
+   static Map<String, List<String>> loadAccepted(String path) throws Exception {
+      Map<String, List<String>> graph = new HashMap<String, List<String>>();
+      BufferedReader reader = new BufferedReader(new FileReader(path));
+      try{
+         String line;
+         while((line = reader.readLine()) != null){
+            String[] fields = line.split(",");
+            if(fields.length < 3 || !fields[2].trim().equals("Accept")){
+               continue;
+            }
+            addEdge(graph, fields[0], fields[1]);
+            addEdge(graph, fields[1], fields[0]);
+         }
+      }finally{
+         reader.close();
+      }
+      return graph;
+   }//end loadAccepted
+
+   private static void addEdge(Map<String, List<String>> graph, String from, String to){
+      List<String> friends = graph.get(from);
+      if(friends == null){
+         friends = new ArrayList<String>();
+         graph.put(from, friends);
+      }
+      friends.add(to);
+   }//end addEdge
+
+   /*
+   * The previous ThreeLevels loops, kept here only as the baseline
+   *
+   * */
+   private static boolean nestedThreeLevels(Reachability.Neighbors graph, String authorisedUser, String desiredUser){
+      List<String> levelone = graph.of(authorisedUser);
+      List<String> leveltwo = new ArrayList<String>();
+      List<String> levelthree = new ArrayList<String>();
+      List<String> allLevels = new ArrayList<String>();
+      allLevels.addAll(levelone);
+
+      for(int i=0; i<levelone.size(); i++){
+         leveltwo.addAll(graph.of(levelone.get(i)));
+         allLevels.addAll(leveltwo);
+
+         for(int j=0; j<leveltwo.size(); j++){
+            levelthree.addAll(graph.of(leveltwo.get(j)));
+            allLevels.addAll(levelthree);
+         }
+      }
+      return allLevels.contains(desiredUser);
+   }//end nestedThreeLevels
+
+   private static void report(String name, int pairs, int found, long nanos, long lookups){
+      System.out.println(String.format("%-14s pairs=%d reachable=%d total=%.1fms per-pair=%.3fms friend-lookups=%d (%d queries)",
+            name, pairs, found, nanos / 1e6, nanos / 1e6 / pairs, lookups, lookups * 2));
+   }//end report
+
+}//end ReachabilityBench
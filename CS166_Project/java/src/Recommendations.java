@@ -0,0 +1,124 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+
+/**
+ * "People you may know": friends of friends ranked by how many connections
+ * they share with the user, boosted for every company in WORK_EXPR and
+ * school in EDUCATIONAL_DETAILS they have in common.
+ *
+ * Mutual connections are counted in memory over the ConnectionIndex, which
+ * is kept current as connections are accepted and rejected, so no friends
+ * list is read per candidate.  At most profnetwork.suggestBudget edges are
+ * looked at per request however well connected the user is.  The shared
+ * companies and schools are read in one query that runs while the graph is
+ * walked, looking at no more than profnetwork.suggestPerPlace users per
+ * company or school.  A suggestion's score is
+ *
+ *    mutual connections + profnetwork.suggestPlaceWeight * shared places
+ */
+public class Recommendations {
+
+   /**
+    * One suggested user
+    */
+   public static class Suggestion {
+      public final String userId;
+      public final int mutual;
+      public final int shared;
+      public final double score;
+
+      Suggestion(String userId, int mutual, int shared, double score){
+         this.userId = userId;
+         this.mutual = mutual;
+         this.shared = shared;
+         this.score = score;
+      }
+   }//end Suggestion
+
+   // edges looked at per request
+   static final int BUDGET = Integer.getInteger("profnetwork.suggestBudget", 200000);
+
+   // what one shared company or school is worth next to one mutual connection
+   static final double PLACE_WEIGHT = Double.parseDouble(System.getProperty("profnetwork.suggestPlaceWeight", "2.0"));
+
+   // most users sharing a place that are read back
+   static final int PLACE_LIMIT = Integer.getInteger("profnetwork.suggestPlaces", 5000);
+
+   // most users looked at per company or school, so a large employer costs
+   // no more than a small one
+   static final int PER_PLACE = Integer.getInteger("profnetwork.suggestPerPlace", 500);
+
+   // users sharing a company or school with the user, and how many they
+   // share.  Each of the user's places is looked up on its own and cut at
+   // PER_PLACE users before anything is counted.
+   static final String SHARED_PLACES =
+      "SELECT u.userId, count(*) FROM (" +
+         "SELECT p.userKey FROM (SELECT DISTINCT company FROM WORK_EXPR WHERE userKey = ?) m " +
+         "CROSS JOIN LATERAL (SELECT DISTINCT w.userKey FROM WORK_EXPR w " +
+            "WHERE w.company = m.company AND w.userKey <> ? ORDER BY w.userKey LIMIT ?) p " +
+         "UNION ALL " +
+         "SELECT p.userKey FROM (SELECT DISTINCT instituitionName FROM EDUCATIONAL_DETAILS WHERE userKey = ?) m " +
+         "CROSS JOIN LATERAL (SELECT DISTINCT e.userKey FROM EDUCATIONAL_DETAILS e " +
+            "WHERE e.instituitionName = m.instituitionName AND e.userKey <> ? ORDER BY e.userKey LIMIT ?) p" +
+      ") s JOIN USR u ON u.userKey = s.userKey GROUP BY u.userId ORDER BY 2 DESC LIMIT ?";
+
+   private static final Comparator<Suggestion> WORST_FIRST = new Comparator<Suggestion>(){
+      public int compare(Suggestion a, Suggestion b){
+         int byScore = Double.compare(a.score, b.score);
+         return byScore != 0 ? byScore : b.userId.compareTo(a.userId);
+      }
+   };
+
+   /*
+   * Returns up to k suggestions for a user, best first
+   *
+   * */
+   public static List<Suggestion> suggest(ProfNetwork esql, String userId, int k) throws SQLException {
+      List<Suggestion> best = new ArrayList<Suggestion>();
+      int key = esql.userKey(userId);
+      if(key < 0 || k <= 0){
+         return best;
+      }
+      Future<List<List<String>>> places = esql.executeQueryAsync(SHARED_PLACES, key, key, PER_PLACE, key, key, PER_PLACE, PLACE_LIMIT);
+
+      ConnectionIndex graph = ProfNetwork.ConnectionGraph(esql);
+      Map<Integer, int[]> mutual = graph.friendsOfFriends(graph.id(userId), BUDGET);
+
+      Map<String, Integer> shared = new HashMap<String, Integer>();
+      List<List<String>> rows = QueryExecutor.await(places);
+      for(int i=0; i<rows.size(); i++){
+         shared.put(rows.get(i).get(0), Integer.valueOf(rows.get(i).get(1)));
+      }
+
+      //a min heap of k keeps the best seen so far, the weakest on top
+      PriorityQueue<Suggestion> top = new PriorityQueue<Suggestion>(k + 1, WORST_FIRST);
+      Iterator<Map.Entry<Integer, int[]>> candidates = mutual.entrySet().iterator();
+      while(candidates.hasNext()){
+         Map.Entry<Integer, int[]> candidate = candidates.next();
+         String name = graph.name(candidate.getKey());
+         Integer inCommon = shared.get(name);
+         int common = inCommon == null ? 0 : inCommon.intValue();
+         int count = candidate.getValue()[0];
+         Suggestion suggestion = new Suggestion(name, count, common, count + PLACE_WEIGHT * common);
+         if(top.size() < k){
+            top.add(suggestion);
+         }
+         else if(WORST_FIRST.compare(suggestion, top.peek()) > 0){
+            top.poll();
+            top.add(suggestion);
+         }
+      }
+      best.addAll(top);
+      Collections.sort(best, Collections.reverseOrder(WORST_FIRST));
+      return best;
+   }//end suggest
+
+}//end Recommendations
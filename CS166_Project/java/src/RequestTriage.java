@@ -0,0 +1,78 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pending connection requests sent to a user, listed a page at a time and
+ * accepted or rejected in bulk.
+ *
+ * Pages are found by seeking past the userId that ended the previous page,
+ * so every page costs the same however many requests are waiting.  A bulk
+ * decision, on every request, on those from userIds starting with some
+ * text or on a chosen few, is one UPDATE over all the rows it covers, which
+ * runs in one transaction and costs one round trip whatever its size.  It
+ * returns the requesters it changed so the in memory connection index and
+ * friend sets are brought up to date without asking again.  The triggers of
+ * create_counters.sql keep the request and friend counts right.
+ */
+public class RequestTriage {
+
+   static final String PAGE =
+      "SELECT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.userKey " +
+      "WHERE c.connectionKey = ? AND c.status = 'Request' AND u.userId > ? ORDER BY u.userId LIMIT ?";
+
+   /*
+   * Returns up to limit requesters whose userId sorts after the given one
+   *
+   * */
+   public static List<String> page(ProfNetwork esql, String userId, String after, int limit) throws SQLException {
+      List<List<String>> rows = esql.executeQueryAndReturnResult(PAGE, esql.requireUserKey(userId), after, limit);
+      List<String> requesters = new ArrayList<String>(rows.size());
+      for(int i=0; i<rows.size(); i++){
+         requesters.add(rows.get(i).get(0));
+      }
+      return requesters;
+   }//end page
+
+   /*
+   * Accepts or rejects the pending requests sent to userId, all of them, or
+   * only those from userIds starting with prefix when prefix is not null,
+   * or only those from the requesters listed when selected is not null.
+   * Returns the requesters whose request was decided.
+   *
+   * */
+   public static List<String> decide(ProfNetwork esql, String userId, boolean accept,
+                                     String prefix, List<String> selected) throws SQLException {
+      String status = accept ? "Accept" : "Reject";
+      List<Object> params = new ArrayList<Object>();
+      StringBuilder sql = new StringBuilder("UPDATE CONNECTION_USR c SET status = '").append(status)
+         .append("' FROM USR u WHERE u.userKey = c.userKey AND c.connectionKey = ? AND c.status = 'Request'");
+      params.add(esql.requireUserKey(userId));
+      if(prefix != null){
+         sql.append(" AND u.userId LIKE ?");
+         params.add(PeopleSearch.escapeLike(prefix) + "%");
+      }
+      if(selected != null){
+         if(selected.isEmpty()){
+            return new ArrayList<String>();
+         }
+         sql.append(" AND u.userId IN (");
+         for(int i=0; i<selected.size(); i++){
+            sql.append(i == 0 ? "?" : ", ?");
+            params.add(selected.get(i));
+         }
+         sql.append(")");
+      }
+      sql.append(" RETURNING u.userId");
+
+      List<List<String>> rows = esql.executeQueryAndReturnResult(sql.toString(), params.toArray());
+      List<String> decided = new ArrayList<String>(rows.size());
+      for(int i=0; i<rows.size(); i++){
+         String requester = rows.get(i).get(0);
+         decided.add(requester);
+         ProfNetwork.ConnectionChanged(esql, requester, userId, status);
+      }
+      return decided;
+   }//end decide
+
+}//end RequestTriage
@@ -0,0 +1,416 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Locale;
+
+/**
+ * Per thread console for the menus.
+ *
+ * The menu code reads ProfNetwork.in and prints to System.out.  When a
+ * thread is attached to a session, both are redirected to that session's
+ * socket; any other thread keeps using the real keyboard and terminal.
+ * Every session prints through a PrintStream of its own, so one client
+ * that is slow to read only holds up its own menus and not everybody's.
+ *
+ * Other threads can post notices to a session.  Posting only queues the
+ * notice, the notification poller that posts for every session never
+ * writes to a socket itself.  A session that is printing menus writes its
+ * notices just before it next waits for input, so they never land in the
+ * middle of a menu, and one that is already waiting has them written by a
+ * thread of its own, so a client that stops reading holds up nobody else.
+ *
+ * The menus report a failure by printing it to System.err and carrying on,
+ * so errors() counts the calling thread's writes to it for callers that
+ * need to tell a failed menu action from one that worked.
+ */
+public class SessionConsole {
+
+   private static final ThreadLocal<BufferedReader> sessionIn = new ThreadLocal<BufferedReader>();
+   private static final ThreadLocal<PrintStream> sessionOut = new ThreadLocal<PrintStream>();
+   private static final ThreadLocal<Notices> sessionNotices = new ThreadLocal<Notices>();
+   private static final Notices consoleNotices = new Notices(System.out);
+   private static final ThreadLocal<long[]> errorWrites = new ThreadLocal<long[]>(){
+      protected long[] initialValue(){
+         return new long[1];
+      }
+   };
+
+   /**
+    * Notices waiting to be shown to one session or to the console
+    */
+   public static class Notices {
+      private final PrintStream out;
+      // guarded by this
+      private final StringBuilder pending = new StringBuilder();
+      private boolean waiting = false;
+      private boolean writing = false;
+      private boolean closed = false;
+      private Thread writer = null;
+
+      Notices(PrintStream out){
+         this.out = out;
+      }
+
+      /*
+      * Queues a line for the user, shown now if they are at a prompt
+      *
+      * */
+      public synchronized void post(String text){
+         if(closed){
+            return;
+         }
+         pending.append("\n*** ").append(text).append(" ***\n");
+         if(writer == null){
+            writer = new Thread(new Runnable(){
+               public void run(){
+                  deliver();
+               }
+            }, "notices");
+            writer.setDaemon(true);
+            writer.start();
+         }
+         notifyAll();
+      }
+
+      /*
+      * Called by the session's own thread around waiting for input.  A
+      * notice still being written is finished before the menus go on.
+      *
+      * */
+      void waiting(boolean waiting){
+         String text;
+         synchronized(this){
+            while(writing){
+               try{
+                  wait();
+               }catch(InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  break;
+               }
+            }
+            this.waiting = waiting;
+            text = waiting ? take() : null;
+         }
+         if(text != null){
+            write(text);
+         }
+      }
+
+      synchronized void close(){
+         closed = true;
+         notifyAll();
+      }
+
+      // the writer thread, shows what is posted while the session waits
+      private void deliver(){
+         while(true){
+            String text;
+            synchronized(this){
+               while(!closed && (writing || !waiting || pending.length() == 0)){
+                  try{
+                     wait();
+                  }catch(InterruptedException e){
+                     return;
+                  }
+               }
+               if(closed){
+                  return;
+               }
+               text = take();
+            }
+            write(text);
+         }
+      }
+
+      // takes the pending text to write, guarded by this
+      private String take(){
+         if(pending.length() == 0){
+            return null;
+         }
+         String text = pending.toString();
+         pending.setLength(0);
+         writing = true;
+         return text;
+      }
+
+      private void write(String text){
+         try{
+            // a session that is going away drops its notices, PrintStream
+            // swallows the IOException
+            out.print(text);
+            out.flush();
+         }finally{
+            synchronized(this){
+               writing = false;
+               notifyAll();
+            }
+         }
+      }
+   }//end Notices
+
+   /**
+    * Thrown out of readLine when the client of a session hangs up, so the
+    * menus unwind even though they catch every Exception.  It is an Error
+    * only because the menus' catch(Exception) blocks would swallow an
+    * exception and prompt the closed session again.
+    */
+   public static class SessionClosed extends Error {
+      private static final long serialVersionUID = 1L;
+
+      public SessionClosed(){
+         super("session closed");
+      }
+   }//end SessionClosed
+
+   /*
+   * Wraps the console reader so readLine goes to the session of the calling thread
+   *
+   * */
+   public static BufferedReader input(final BufferedReader console){
+      return new BufferedReader(new StringReader("")){
+         public String readLine() throws IOException {
+            BufferedReader session = sessionIn.get();
+            Notices pending = notices();
+            long start = System.nanoTime();
+            try{
+               if(session == null){
+                  System.out.flush();
+                  pending.waiting(true);
+                  return console.readLine();
+               }
+               // prompts are printed without a newline, push them out before waiting
+               sessionOut.get().flush();
+               pending.waiting(true);
+               String line = session.readLine();
+               if(line == null){
+                  throw new SessionClosed();
+               }
+               return line;
+            }finally{
+               pending.waiting(false);
+               // keeps the user's think time out of the menu timings
+               Metrics.waited(System.nanoTime() - start);
+            }
+         }
+      };
+   }//end input
+
+   /*
+   * Points System.out and System.err at the session of the calling thread
+   *
+   * */
+   public static synchronized void install(){
+      if(System.out instanceof Routed){
+         return;
+      }
+      System.setOut(new Routed(System.out, false));
+      System.setErr(new Routed(System.err, true));
+   }//end install
+
+   /*
+   * Attaches the current thread to a session
+   *
+   * */
+   public static void attach(BufferedReader in, OutputStream out){
+      PrintStream print = new PrintStream(out, true);
+      sessionIn.set(in);
+      sessionOut.set(print);
+      sessionNotices.set(new Notices(print));
+   }//end attach
+
+   public static void detach(){
+      Notices notices = sessionNotices.get();
+      if(notices != null){
+         notices.close();
+      }
+      sessionIn.remove();
+      sessionOut.remove();
+      sessionNotices.remove();
+   }//end detach
+
+   /*
+   * Returns the notices of the calling thread's session, or of the console
+   *
+   * */
+   public static Notices notices(){
+      Notices notices = sessionNotices.get();
+      return notices == null ? consoleNotices : notices;
+   }//end notices
+
+   /*
+   * Returns how many writes the calling thread has made to System.err since
+   * install(), only the difference between two calls means anything
+   *
+   * */
+   public static long errors(){
+      return errorWrites.get()[0];
+   }//end errors
+
+   /**
+    * PrintStream that hands every call to the PrintStream of the calling
+    * thread's session, or to the original stream when the thread has no
+    * session.  It never takes its own lock, so sessions only ever wait on
+    * their own stream.
+    */
+   private static class Routed extends PrintStream {
+      private final PrintStream console;
+      private final boolean counted;
+
+      Routed(PrintStream console, boolean counted){
+         super(console, true);
+         this.console = console;
+         this.counted = counted;
+      }
+
+      private PrintStream target(){
+         PrintStream session = sessionOut.get();
+         return session == null ? console : session;
+      }
+
+      // the target for a write, counted when this is System.err
+      private PrintStream written(){
+         if(counted){
+            errorWrites.get()[0]++;
+         }
+         return target();
+      }
+
+      public void flush(){
+         target().flush();
+      }
+
+      public void close(){
+         target().close();
+      }
+
+      public boolean checkError(){
+         return target().checkError();
+      }
+
+      public void write(int b){
+         written().write(b);
+      }
+
+      public void write(byte[] b, int off, int len){
+         written().write(b, off, len);
+      }
+
+      public void write(byte[] b) throws IOException {
+         written().write(b);
+      }
+
+      public void print(boolean b){
+         written().print(b);
+      }
+
+      public void print(char c){
+         written().print(c);
+      }
+
+      public void print(int i){
+         written().print(i);
+      }
+
+      public void print(long l){
+         written().print(l);
+      }
+
+      public void print(float f){
+         written().print(f);
+      }
+
+      public void print(double d){
+         written().print(d);
+      }
+
+      public void print(char[] s){
+         written().print(s);
+      }
+
+      public void print(String s){
+         written().print(s);
+      }
+
+      public void print(Object obj){
+         written().print(obj);
+      }
+
+      public void println(){
+         written().println();
+      }
+
+      public void println(boolean x){
+         written().println(x);
+      }
+
+      public void println(char x){
+         written().println(x);
+      }
+
+      public void println(int x){
+         written().println(x);
+      }
+
+      public void println(long x){
+         written().println(x);
+      }
+
+      public void println(float x){
+         written().println(x);
+      }
+
+      public void println(double x){
+         written().println(x);
+      }
+
+      public void println(char[] x){
+         written().println(x);
+      }
+
+      public void println(String x){
+         written().println(x);
+      }
+
+      public void println(Object x){
+         written().println(x);
+      }
+
+      public PrintStream printf(String format, Object... args){
+         written().printf(format, args);
+         return this;
+      }
+
+      public PrintStream printf(Locale l, String format, Object... args){
+         written().printf(l, format, args);
+         return this;
+      }
+
+      public PrintStream format(String format, Object... args){
+         written().format(format, args);
+         return this;
+      }
+
+      public PrintStream format(Locale l, String format, Object... args){
+         written().format(l, format, args);
+         return this;
+      }
+
+      public PrintStream append(CharSequence csq){
+         written().append(csq);
+         return this;
+      }
+
+      public PrintStream append(CharSequence csq, int start, int end){
+         written().append(csq, start, end);
+         return this;
+      }
+
+      public PrintStream append(char c){
+         written().append(c);
+         return this;
+      }
+   }//end Routed
+
+}//end SessionConsole
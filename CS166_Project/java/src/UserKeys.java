@@ -0,0 +1,67 @@
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps userId login handles to the integer userKey every table joins on.
+ *
+ * A user's key never changes and users are never removed, so once a handle
+ * has been looked up it is answered from memory for as long as it stays
+ * among the capacity most recently used.  Handles that do not exist are
+ * not remembered, a user created later is found on the next lookup.
+ */
+public class UserKeys {
+
+   private final ProfNetwork esql;
+
+   // guarded by this
+   private final LinkedHashMap<String, Integer> keys;
+
+   public UserKeys(ProfNetwork esql, final int capacity){
+      this.esql = esql;
+      this.keys = new LinkedHashMap<String, Integer>(16, 0.75f, true){
+         protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest){
+            return size() > capacity;
+         }
+      };
+   }//end UserKeys
+
+   /*
+   * Returns the key of a user, or -1 if there is no such user
+   *
+   * */
+   public int key(String userId) throws SQLException {
+      if(userId == null){
+         return -1;
+      }
+      synchronized(this){
+         Integer key = keys.get(userId);
+         if(key != null){
+            return key.intValue();
+         }
+      }
+      List<List<String>> rows = esql.executeQueryAndReturnResult("SELECT userKey FROM USR WHERE userId = ?", userId);
+      if(rows.isEmpty()){
+         return -1;
+      }
+      int key = Integer.parseInt(rows.get(0).get(0));
+      synchronized(this){
+         keys.put(userId, key);
+      }
+      return key;
+   }//end key
+
+   /*
+   * Returns the key of a user, failing when there is no such user
+   *
+   * */
+   public int require(String userId) throws SQLException {
+      int key = key(userId);
+      if(key < 0){
+         throw new SQLException("No such user: " + userId);
+      }
+      return key;
+   }//end require
+
+}//end UserKeys
@@ -0,0 +1,20 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+#plans and timings of the hot queries on a loaded database, first as the
+#schema was before the partial indexes and enum statuses, rebuilt inside a
+#transaction that is rolled back, then as it is.  The results on the
+#shipped data are kept in explain_results.txt
+echo "=== before ==="
+psql -p 6400 projectdb <<SQL
+BEGIN;
+DROP INDEX message_inbox_idx, message_sent_idx, connection_accepted_out_idx,
+	connection_accepted_in_idx, connection_request_in_idx;
+ALTER TABLE MESSAGE ALTER status TYPE varchar(30), ALTER deleteStatus TYPE integer;
+ALTER TABLE CONNECTION_USR ALTER status TYPE varchar(30);
+ANALYZE MESSAGE;
+ANALYZE CONNECTION_USR;
+\i $DIR/../src/explain_queries.sql
+ROLLBACK;
+SQL
+echo "=== after ==="
+psql -p 6400 projectdb < $DIR/../src/explain_queries.sql
@@ -0,0 +1,16 @@
+-- Run after load_data.sql, checking the references once over the loaded
+-- rows is much cheaper than checking them row by row during the load.
+ALTER TABLE WORK_EXPR ADD CONSTRAINT work_expr_user_fk
+	FOREIGN KEY(userKey) REFERENCES USR(userKey);
+ALTER TABLE EDUCATIONAL_DETAILS ADD CONSTRAINT educational_details_user_fk
+	FOREIGN KEY(userKey) REFERENCES USR(userKey);
+ALTER TABLE MESSAGE ADD CONSTRAINT message_sender_fk
+	FOREIGN KEY(senderKey) REFERENCES USR(userKey);
+ALTER TABLE MESSAGE ADD CONSTRAINT message_receiver_fk
+	FOREIGN KEY(receiverKey) REFERENCES USR(userKey);
+ALTER TABLE CONNECTION_USR ADD CONSTRAINT connection_user_fk
+	FOREIGN KEY(userKey) REFERENCES USR(userKey);
+ALTER TABLE CONNECTION_USR ADD CONSTRAINT connection_connection_fk
+	FOREIGN KEY(connectionKey) REFERENCES USR(userKey);
+ALTER TABLE USR_COUNTERS ADD CONSTRAINT usr_counters_user_fk
+	FOREIGN KEY(userKey) REFERENCES USR(userKey);
@@ -0,0 +1,83 @@
+-- Per user counts the menus show and the connection rules check, kept
+-- current by triggers so reading them is one primary key lookup.  A
+-- trigger runs inside the statement that fired it, so a count changes in
+-- the same transaction as the rows it counts and is never seen half done.
+-- Run after load_data.sql, the counts are filled once from the loaded rows
+-- instead of being bumped row by row during the load.
+
+-- friends: accepted connections either way round
+-- requestsOut, requestsIn: pending requests sent and received
+-- unread: delivered messages still in the inbox
+INSERT INTO USR_COUNTERS (userKey, friends, requestsOut, requestsIn, unread)
+	SELECT u.userKey, COALESCE(f.n, 0), COALESCE(o.n, 0), COALESCE(i.n, 0), COALESCE(m.n, 0)
+	FROM USR u
+	LEFT JOIN (SELECT k, count(*) AS n FROM (
+			SELECT userKey AS k FROM CONNECTION_USR WHERE status = 'Accept'
+			UNION ALL SELECT connectionKey FROM CONNECTION_USR WHERE status = 'Accept') a
+		GROUP BY k) f ON f.k = u.userKey
+	LEFT JOIN (SELECT userKey AS k, count(*) AS n FROM CONNECTION_USR WHERE status = 'Request'
+		GROUP BY userKey) o ON o.k = u.userKey
+	LEFT JOIN (SELECT connectionKey AS k, count(*) AS n FROM CONNECTION_USR WHERE status = 'Request'
+		GROUP BY connectionKey) i ON i.k = u.userKey
+	LEFT JOIN (SELECT receiverKey AS k, count(*) AS n FROM MESSAGE
+		WHERE status = 'Delivered' AND deleteStatus <> 2 AND deleteStatus <> 3
+		GROUP BY receiverKey) m ON m.k = u.userKey;
+
+CREATE OR REPLACE FUNCTION usr_counters_add(integer, integer, integer, integer, integer) RETURNS void AS $$
+	UPDATE USR_COUNTERS SET friends = friends + $2, requestsOut = requestsOut + $3,
+		requestsIn = requestsIn + $4, unread = unread + $5
+	WHERE userKey = $1;
+$$ LANGUAGE sql;
+
+CREATE OR REPLACE FUNCTION usr_counters_usr() RETURNS trigger AS $$
+BEGIN
+	INSERT INTO USR_COUNTERS (userKey) VALUES (NEW.userKey);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- an old row is taken back out of the counts and a new row put in, which
+-- covers inserts, deletes and every kind of status change
+CREATE OR REPLACE FUNCTION usr_counters_connection() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		IF OLD.status = 'Accept' THEN
+			PERFORM usr_counters_add(OLD.userKey, -1, 0, 0, 0);
+			PERFORM usr_counters_add(OLD.connectionKey, -1, 0, 0, 0);
+		ELSIF OLD.status = 'Request' THEN
+			PERFORM usr_counters_add(OLD.userKey, 0, -1, 0, 0);
+			PERFORM usr_counters_add(OLD.connectionKey, 0, 0, -1, 0);
+		END IF;
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		IF NEW.status = 'Accept' THEN
+			PERFORM usr_counters_add(NEW.userKey, 1, 0, 0, 0);
+			PERFORM usr_counters_add(NEW.connectionKey, 1, 0, 0, 0);
+		ELSIF NEW.status = 'Request' THEN
+			PERFORM usr_counters_add(NEW.userKey, 0, 1, 0, 0);
+			PERFORM usr_counters_add(NEW.connectionKey, 0, 0, 1, 0);
+		END IF;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- a message counts as unread under the same filter the inbox lists with
+CREATE OR REPLACE FUNCTION usr_counters_message() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' AND OLD.status = 'Delivered' AND OLD.deleteStatus <> 2 AND OLD.deleteStatus <> 3 THEN
+		PERFORM usr_counters_add(OLD.receiverKey, 0, 0, 0, -1);
+	END IF;
+	IF TG_OP <> 'DELETE' AND NEW.status = 'Delivered' AND NEW.deleteStatus <> 2 AND NEW.deleteStatus <> 3 THEN
+		PERFORM usr_counters_add(NEW.receiverKey, 0, 0, 0, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER usr_counters_usr AFTER INSERT ON USR
+	FOR EACH ROW EXECUTE PROCEDURE usr_counters_usr();
+CREATE TRIGGER usr_counters_connection AFTER INSERT OR UPDATE OR DELETE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE usr_counters_connection();
+CREATE TRIGGER usr_counters_message AFTER INSERT OR UPDATE OR DELETE ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE usr_counters_message();
@@ -0,0 +1,39 @@
+-- The primary keys already serve lookups by msgId, by userKey in USR,
+-- WORK_EXPR and EDUCATIONAL_DETAILS (userKey leads their keys) and by
+-- userKey in CONNECTION_USR, and the unique constraint on USR.userId serves
+-- the login lookup.  The indexes below cover the other shapes.
+
+-- Inbox and sent messages are listed newest first a page at a time by
+-- seeking past (sendTime, msgId), and only messages the user has not
+-- deleted and that were actually sent are ever listed.  Partial indexes on
+-- exactly that filter leave deleted messages out, and carrying the other
+-- user and the status makes a page an index only scan.
+CREATE INDEX message_inbox_idx ON MESSAGE (receiverKey, sendTime, msgId, senderKey, status)
+	WHERE deleteStatus <> 2 AND deleteStatus <>3 AND status <> 'Failed to Deliver' AND status <> 'Draft';
+CREATE INDEX message_sent_idx ON MESSAGE (senderKey, sendTime, msgId, receiverKey, status)
+	WHERE deleteStatus <> 2 AND deleteStatus <>3 AND status <> 'Failed to Deliver' AND status <> 'Draft';
+
+-- Friends lists, the connection index and the recursive degree of
+-- separation query only follow accepted edges, in both directions.
+CREATE INDEX connection_accepted_out_idx ON CONNECTION_USR (userKey, connectionKey) WHERE status = 'Accept';
+CREATE INDEX connection_accepted_in_idx ON CONNECTION_USR (connectionKey, userKey) WHERE status = 'Accept';
+
+-- Pending requests are listed for the user they were sent to.
+CREATE INDEX connection_request_in_idx ON CONNECTION_USR (connectionKey, userKey) WHERE status = 'Request';
+
+-- People search matches these columns by prefix and by trigram similarity
+-- on their lower case form, a trigram GIN index serves both.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX usr_userid_trgm_idx ON USR USING gin (lower(userId) gin_trgm_ops);
+CREATE INDEX usr_name_trgm_idx ON USR USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX usr_email_trgm_idx ON USR USING gin (lower(email) gin_trgm_ops);
+CREATE INDEX work_expr_company_trgm_idx ON WORK_EXPR USING gin (lower(company) gin_trgm_ops);
+CREATE INDEX educational_details_institution_trgm_idx ON EDUCATIONAL_DETAILS USING gin (lower(instituitionName) gin_trgm_ops);
+
+-- People you may know looks up everyone who worked or studied at the
+-- same places as the user, by exact company and school name.
+CREATE INDEX work_expr_company_idx ON WORK_EXPR (company, userKey);
+CREATE INDEX educational_details_institution_idx ON EDUCATIONAL_DETAILS (instituitionName, userKey);
+
+-- statistics for the planner, and the visibility map for index only scans
+VACUUM ANALYZE;
@@ -0,0 +1,30 @@
+-- Events for the sessions of logged in users, read by Notifications.java.
+-- Each user has a channel per kind of event, named after their userKey, so
+-- the application only LISTENs for the users who are logged in and a
+-- notification needs no payload.  NOTIFY is sent when the transaction
+-- commits, and repeats within one transaction are sent once.
+
+-- message_<receiverKey> when a message is delivered
+CREATE OR REPLACE FUNCTION notify_message() RETURNS trigger AS $$
+BEGIN
+	IF NEW.status = 'Delivered' THEN
+		EXECUTE 'NOTIFY message_' || NEW.receiverKey;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- request_<connectionKey> when a connection request is sent
+CREATE OR REPLACE FUNCTION notify_request() RETURNS trigger AS $$
+BEGIN
+	IF NEW.status = 'Request' AND (TG_OP = 'INSERT' OR OLD.status <> 'Request') THEN
+		EXECUTE 'NOTIFY request_' || NEW.connectionKey;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER notify_message AFTER INSERT ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE notify_message();
+CREATE TRIGGER notify_request AFTER INSERT OR UPDATE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE notify_request();
@@ -2,7 +2,27 @@ DROP TABLE WORK_EXPR;
 DROP TABLE EDUCATIONAL_DETAILS;
 DROP TABLE MESSAGE;
 DROP TABLE CONNECTION_USR;
+DROP TABLE USR_COUNTERS;
 DROP TABLE USR;
+DROP SEQUENCE msg_id_seq;
+DROP SEQUENCE usr_key_seq;
+DROP TYPE connection_status;
+DROP TYPE message_status;
+
+-- Message ids are handed out in blocks: the application takes one nextval
+-- and uses the next 50 ids itself, so INCREMENT BY is the block size.
+CREATE SEQUENCE msg_id_seq INCREMENT BY 50;
+
+-- Every table refers to a user by the integer userKey, userId is only the
+-- login handle and is looked up once to find the key.
+CREATE SEQUENCE usr_key_seq;
+
+-- Foreign keys are added by create_constraints.sql once the data is loaded.
+
+-- Statuses are stored as enums, 4 bytes each instead of the label text, and
+-- are still compared and inserted with their labels.
+CREATE TYPE connection_status AS ENUM ('Request', 'Accept', 'Reject');
+CREATE TYPE message_status AS ENUM ('Delivered', 'Read', 'Sent', 'Draft', 'Failed to Deliver');
 
 
 CREATE TABLE USR(
@@ -11,46 +31,50 @@ CREATE TABLE USR(
 	email text NOT NULL,
 	name varchar(50),
 	dateOfBirth date,
-	Primary Key(userId));
+	userKey integer NOT NULL DEFAULT nextval('usr_key_seq'),
+	Primary Key(userKey));
 
 CREATE TABLE WORK_EXPR(
-	userId varchar(255) NOT NULL, 
+	userKey integer NOT NULL, 
 	company varchar(50) NOT NULL, 
 	role varchar(50) NOT NULL,
 	location varchar(50),
 	startDate date,
 	endDate date,
-	PRIMARY KEY(userId,company,role,startDate),
-	FOREIGN KEY(userId) REFERENCES USR(userId) );
+	PRIMARY KEY(userKey,company,role,startDate));
 
 CREATE TABLE EDUCATIONAL_DETAILS(
-	userId varchar(255) NOT NULL, 
+	userKey integer NOT NULL, 
 	instituitionName varchar(50) NOT NULL, 
 	major varchar(50) NOT NULL,
 	degree varchar(50) NOT NULL,
 	startdate date,
 	enddate date,
-	PRIMARY KEY(userId,major,degree),
-	FOREIGN KEY(userId) REFERENCES USR(userId));
+	PRIMARY KEY(userKey,major,degree));
 
 CREATE TABLE MESSAGE(
-	msgId integer UNIQUE NOT NULL, 
-	senderId varchar(255) NOT NULL,
-	receiverId varchar(255) NOT NULL,
+	msgId integer UNIQUE NOT NULL DEFAULT nextval('msg_id_seq'), 
+	senderKey integer NOT NULL,
+	receiverKey integer NOT NULL,
 	contents varchar(500) NOT NULL,
-	sendTime timestamp, 
-	deleteStatus integer,
-	status varchar(30) NOT NULL,
-	PRIMARY KEY(msgId),
-    FOREIGN KEY(senderId) REFERENCES USR(userId),
-    FOREIGN KEY(receiverId) REFERENCES USR(userId));
+	sendTime timestamp NOT NULL DEFAULT '-infinity', 
+	deleteStatus smallint,
+	status message_status NOT NULL,
+	PRIMARY KEY(msgId));
 
 CREATE TABLE CONNECTION_USR(
-	userId varchar(255) NOT NULL, 
-	connectionId varchar(255) NOT NULL, 
-	status varchar(30) NOT NULL,
-	PRIMARY KEY(userId,connectionId),
-	FOREIGN KEY(userId) REFERENCES USR(userId),
-    FOREIGN KEY(connectionId) REFERENCES USR(userId));
+	userKey integer NOT NULL, 
+	connectionKey integer NOT NULL, 
+	status connection_status NOT NULL,
+	PRIMARY KEY(userKey,connectionKey));
+
+-- One row per user, filled and kept current by create_counters.sql.
+CREATE TABLE USR_COUNTERS(
+	userKey integer NOT NULL,
+	friends integer NOT NULL DEFAULT 0,
+	requestsOut integer NOT NULL DEFAULT 0,
+	requestsIn integer NOT NULL DEFAULT 0,
+	unread integer NOT NULL DEFAULT 0,
+	PRIMARY KEY(userKey));
 
 
@@ -0,0 +1,48 @@
+-- The query shapes the application runs most, with values from the shipped
+-- data.  Run by scripts/explain.sh without and with the indexes from
+-- create_index.sql.  The application resolves a handle to its userKey once
+-- and caches it, so the plans below start from the keys as well.
+
+SELECT userKey AS vaughn FROM USR WHERE userId = 'Vaughn' \gset
+SELECT userKey AS raheem FROM USR WHERE userId = 'Raheem' \gset
+
+\echo handle to key
+EXPLAIN ANALYZE SELECT userKey FROM USR WHERE userId = 'Vaughn';
+
+\echo friends, outgoing and incoming accepted edges
+EXPLAIN ANALYZE SELECT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.connectionKey WHERE c.userKey = :vaughn AND c.status = 'Accept'
+	UNION ALL SELECT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.userKey WHERE c.connectionKey = :vaughn AND c.status = 'Accept';
+
+\echo connection requests sent to a user
+EXPLAIN ANALYZE SELECT u.userId FROM CONNECTION_USR c JOIN USR u ON u.userKey = c.userKey WHERE c.connectionKey = :vaughn AND c.status = 'Request';
+
+\echo connection requests sent by a user
+EXPLAIN ANALYZE SELECT connectionKey FROM CONNECTION_USR WHERE userKey = :vaughn AND status = 'Request';
+
+\echo degree of separation, up to three hops
+EXPLAIN ANALYZE WITH RECURSIVE walk(userKey, hops) AS (
+	SELECT CAST(:vaughn AS integer), 0
+	UNION
+	SELECT CASE WHEN c.userKey = w.userKey THEN c.connectionKey ELSE c.userKey END, w.hops + 1
+	FROM walk w JOIN CONNECTION_USR c ON (c.userKey = w.userKey OR c.connectionKey = w.userKey)
+	WHERE c.status = 'Accept' AND w.hops < 3 AND w.userKey <> :raheem
+) SELECT min(hops) FROM walk WHERE userKey = :raheem;
+
+\echo first inbox page
+EXPLAIN ANALYZE SELECT m.msgId, u.userId, m.sendTime, m.status FROM MESSAGE m JOIN USR u ON u.userKey = m.senderKey WHERE m.receiverKey = :vaughn AND (m.deleteStatus <> 2 AND m.deleteStatus <>3) AND (m.status <> 'Failed to Deliver' AND m.status <> 'Draft') AND (m.sendTime, m.msgId) < (CAST('infinity' AS timestamp), 2147483647) ORDER BY m.sendTime DESC, m.msgId DESC LIMIT 11;
+
+\echo first sent page
+EXPLAIN ANALYZE SELECT m.msgId, u.userId, m.sendTime, m.status FROM MESSAGE m JOIN USR u ON u.userKey = m.receiverKey WHERE m.senderKey = :vaughn AND (m.deleteStatus <> 2 AND m.deleteStatus <>3) AND (m.status <> 'Failed to Deliver' AND m.status <> 'Draft') AND (m.sendTime, m.msgId) < (CAST('infinity' AS timestamp), 2147483647) ORDER BY m.sendTime DESC, m.msgId DESC LIMIT 11;
+
+\echo messages listed for deletion
+EXPLAIN ANALYZE SELECT m.msgId, u.userId, m.sendTime, m.status, m.deleteStatus FROM MESSAGE m JOIN USR u ON u.userKey = m.senderKey WHERE m.receiverKey = :vaughn AND (m.deleteStatus <> 2 AND m.deleteStatus <>3) AND (m.status <> 'Failed to Deliver' AND m.status <> 'Draft');
+
+\echo profile
+EXPLAIN ANALYZE SELECT 0, email, name, CAST(NULL AS varchar), dateOfBirth, CAST(NULL AS date) FROM USR WHERE userKey = :vaughn
+	UNION ALL SELECT 1, company, role, location, startDate, endDate FROM WORK_EXPR WHERE userKey = :vaughn
+	UNION ALL SELECT 2, instituitionName, major, degree, startdate, enddate FROM EDUCATIONAL_DETAILS WHERE userKey = :vaughn
+	ORDER BY 1;
+
+\echo table and index sizes
+SELECT relname, relkind, pg_size_pretty(pg_relation_size(oid)) AS size FROM pg_class
+	WHERE relnamespace = (SELECT oid FROM pg_namespace WHERE nspname = 'public') AND relkind IN ('r', 'i') ORDER BY pg_relation_size(oid) DESC;
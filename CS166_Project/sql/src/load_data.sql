@@ -1,5 +1,27 @@
-COPY USR FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Usr.csv' WITH DELIMITER ',' CSV;
-COPY WORK_EXPR FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Work_Ex.csv' WITH DELIMITER ',' CSV;
-COPY EDUCATIONAL_DETAILS FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Edu_Det.csv' WITH DELIMITER ',' CSV;
-COPY MESSAGE FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Message.csv' WITH DELIMITER ',' CSV;
-COPY CONNECTION_USR FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Connection.csv' WITH DELIMITER ',' CSV;
+-- USR hands out the userKeys as it is loaded, the other files name users by
+-- userId and are staged first, then stored with the matching keys.
+COPY USR (userId, password, email, name, dateOfBirth) FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Usr.csv' WITH DELIMITER ',' CSV;
+
+CREATE TEMP TABLE work_expr_csv (userId varchar(255), company varchar(50), role varchar(50), location varchar(50), startDate date, endDate date);
+COPY work_expr_csv FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Work_Ex.csv' WITH DELIMITER ',' CSV;
+INSERT INTO WORK_EXPR SELECT u.userKey, w.company, w.role, w.location, w.startDate, w.endDate
+	FROM work_expr_csv w JOIN USR u ON u.userId = w.userId;
+
+CREATE TEMP TABLE educational_details_csv (userId varchar(255), instituitionName varchar(50), major varchar(50), degree varchar(50), startdate date, enddate date);
+COPY educational_details_csv FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Edu_Det.csv' WITH DELIMITER ',' CSV;
+INSERT INTO EDUCATIONAL_DETAILS SELECT u.userKey, e.instituitionName, e.major, e.degree, e.startdate, e.enddate
+	FROM educational_details_csv e JOIN USR u ON u.userId = e.userId;
+
+CREATE TEMP TABLE message_csv (msgId integer, senderId varchar(255), receiverId varchar(255), contents varchar(500), sendTime timestamp, deleteStatus smallint, status message_status);
+COPY message_csv FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Message.csv' WITH DELIMITER ',' CSV;
+-- a message without a send time is kept as older than any other
+INSERT INTO MESSAGE SELECT m.msgId, s.userKey, r.userKey, m.contents, COALESCE(m.sendTime, '-infinity'), m.deleteStatus, m.status
+	FROM message_csv m JOIN USR s ON s.userId = m.senderId JOIN USR r ON r.userId = m.receiverId;
+
+CREATE TEMP TABLE connection_usr_csv (userId varchar(255), connectionId varchar(255), status connection_status);
+COPY connection_usr_csv FROM '/home/csmajs/kgall005/Downloads/cs166/CS166_Project/data/Connection.csv' WITH DELIMITER ',' CSV;
+INSERT INTO CONNECTION_USR SELECT u.userKey, c.userKey, x.status
+	FROM connection_usr_csv x JOIN USR u ON u.userId = x.userId JOIN USR c ON c.userId = x.connectionId;
+
+-- continue message ids after the loaded ones
+SELECT setval('msg_id_seq', (SELECT COALESCE(max(msgId), 0) + 1 FROM MESSAGE), false);